@@ -0,0 +1,147 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Lists the size and checksum of each entry of an export archive and the number of entities of each section of the xml file. It is stored as last
+ * entry of the archive and used by the {@link ArchiveVerifier} to find missing, truncated or damaged entries.
+ *
+ * The keys consist of the prefix <code>entry:</code> and the name of the entry with the value <code>size:checksum</code>, or of the prefix
+ * <code>entities:</code> and the name of the section with the number of entities. Volumes of a split export contain their number and the number of
+ * all volumes as <code>volume</code> and <code>volumes</code>.
+ */
+public class ArchiveIndex {
+
+    // name of the index inside of the export archive
+    public static final String ENTRY_NAME = "goobi-to-goobi-index.properties";
+
+    private static final String ENTRY_PREFIX = "entry:";
+    private static final String ENTITIES_PREFIX = "entities:";
+    private static final String VOLUME = "volume";
+    private static final String VOLUMES = "volumes";
+
+    // in the order of the archive
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Map<String, Long> entities = new LinkedHashMap<>();
+    // 0 if the export was written as a single archive
+    private int volume;
+    private int volumeCount;
+
+    /**
+     * Read the index entry of an archive
+     */
+    public static ArchiveIndex load(InputStream in) throws IOException {
+        Properties properties = new Properties();
+        properties.load(in);
+        ArchiveIndex index = new ArchiveIndex();
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key);
+            try {
+                if (key.startsWith(ENTRY_PREFIX)) {
+                    int separator = value.indexOf(':');
+                    index.entries.put(key.substring(ENTRY_PREFIX.length()), new Entry(Long.parseLong(value.substring(0, separator)), value
+                            .substring(separator + 1)));
+                } else if (key.startsWith(ENTITIES_PREFIX)) {
+                    index.entities.put(key.substring(ENTITIES_PREFIX.length()), Long.parseLong(value));
+                } else if (VOLUME.equals(key)) {
+                    index.volume = Integer.parseInt(value);
+                } else if (VOLUMES.equals(key)) {
+                    index.volumeCount = Integer.parseInt(value);
+                }
+            } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+                throw new IOException("Invalid value in " + ENTRY_NAME + ": " + key + "=" + value, e);
+            }
+        }
+        return index;
+    }
+
+    public synchronized void addEntry(String name, long size, String checksum) {
+        entries.put(name, new Entry(size, checksum));
+    }
+
+    public synchronized void setEntities(String section, long count) {
+        entities.put(section, count);
+    }
+
+    /**
+     * @param volume number of this volume, starting with 1
+     * @param volumeCount number of all volumes of the export
+     */
+    public synchronized void setVolume(int volume, int volumeCount) {
+        this.volume = volume;
+        this.volumeCount = volumeCount;
+    }
+
+    public synchronized int getVolume() {
+        return volume;
+    }
+
+    public synchronized int getVolumeCount() {
+        return volumeCount;
+    }
+
+    public synchronized Map<String, Entry> getEntries() {
+        return new LinkedHashMap<>(entries);
+    }
+
+    public synchronized Map<String, Long> getEntities() {
+        return new LinkedHashMap<>(entities);
+    }
+
+    /**
+     * Write the index in properties format into the stream. The stream is not closed.
+     */
+    public synchronized void store(OutputStream out) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            properties.setProperty(ENTRY_PREFIX + entry.getKey(), entry.getValue().getSize() + ":" + entry.getValue().getChecksum());
+        }
+        for (Map.Entry<String, Long> section : entities.entrySet()) {
+            properties.setProperty(ENTITIES_PREFIX + section.getKey(), String.valueOf(section.getValue()));
+        }
+        if (volume > 0) {
+            properties.setProperty(VOLUME, String.valueOf(volume));
+            properties.setProperty(VOLUMES, String.valueOf(volumeCount));
+        }
+        properties.store(out, "entries and entities of the export archive");
+    }
+
+    public static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is available in every java runtime
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(byte[] digest) {
+        return String.format("%064x", new BigInteger(1, digest));
+    }
+
+    public static class Entry {
+        private final long size;
+        private final String checksum;
+
+        private Entry(long size, String checksum) {
+            this.size = size;
+            this.checksum = checksum;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public String getChecksum() {
+            return checksum;
+        }
+    }
+}
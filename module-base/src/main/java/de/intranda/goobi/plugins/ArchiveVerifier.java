@@ -0,0 +1,217 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+
+/**
+ * Checks an export archive against its {@link ArchiveIndex}. The entries are read by several threads at the same time, each one with positional
+ * reads from the same file channel, so the check is limited by the disk and not by a single core.
+ *
+ * Missing, truncated and damaged entries are reported, as well as sections with a different number of entities than exported. The xml file is
+ * read in parallel to the other entries with the {@link InfrastructureArchiveReader}, to find missing ruleset and docket files and references to
+ * entities that are not part of the archive. Each volume of a split export is verified by itself, the references to ruleset and docket files in
+ * other volumes are not checked.
+ *
+ * <pre>
+ * java -cp ... de.intranda.goobi.plugins.ArchiveVerifier archive.zip [threads]
+ * </pre>
+ */
+public class ArchiveVerifier {
+
+    // the reader collects no batches without a handler, the size only matters if a handler is added
+    private static final int BATCH_SIZE = 500;
+
+    private final int threads;
+
+    /**
+     * @param threads number of entries that are read at the same time
+     */
+    public ArchiveVerifier(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: ArchiveVerifier <archive> [threads]");
+            System.exit(1);
+        }
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        ImportReport report = new ArchiveVerifier(threads).verify(Paths.get(args[0]));
+        System.out.println(report.getSummary());
+        System.exit(report.isValid() ? 0 : 1);
+    }
+
+    /**
+     * Verify the archive
+     *
+     * @param archive the zip file
+     * @return the entities of the xml file, the checked entries and the problems found
+     */
+    public ImportReport verify(Path archive) throws IOException {
+        ZipFile zipFile;
+        FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ);
+        try {
+            zipFile = ZipFile.builder().setSeekableByteChannel(channel).get();
+        } catch (IOException e) {
+            channel.close();
+            // the central directory is written at the end, so an interrupted upload or copy cannot be opened at all
+            ImportReport report = new ImportReport();
+            report.addError("The archive is incomplete or damaged: " + e.getMessage());
+            return report;
+        }
+        try (ZipFile zip = zipFile) {
+            return verify(zip);
+        }
+    }
+
+    private ImportReport verify(ZipFile zip) throws IOException {
+        List<String> names = new ArrayList<>();
+        String exportFile = null;
+        for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+            if (!entry.isDirectory()) {
+                names.add(entry.getName());
+                if (InfrastructureArchiveReader.isExportFile(entry.getName())) {
+                    exportFile = entry.getName();
+                }
+            }
+        }
+        ArchiveIndex index = null;
+        ZipArchiveEntry indexEntry = zip.getEntry(ArchiveIndex.ENTRY_NAME);
+        if (indexEntry != null) {
+            try (InputStream in = zip.getInputStream(indexEntry)) {
+                index = ArchiveIndex.load(in);
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Future<ImportReport> xmlCheck = null;
+            if (exportFile != null) {
+                ZipArchiveEntry xmlEntry = zip.getEntry(exportFile);
+                xmlCheck = executor.submit(() -> {
+                    try (InputStream in = zip.getInputStream(xmlEntry)) {
+                        return new InfrastructureArchiveReader(null, BATCH_SIZE, null).readExportFile(xmlEntry.getName(), in, names);
+                    } catch (IOException e) {
+                        ImportReport report = new ImportReport();
+                        report.addError("Damaged entry " + xmlEntry.getName() + ": " + e.getMessage());
+                        return report;
+                    }
+                });
+            }
+            Set<String> checkedEntries = new HashSet<>();
+            List<Future<EntryResult>> entryChecks = new ArrayList<>();
+            Map<String, ArchiveIndex.Entry> indexedEntries = index == null ? Collections.emptyMap() : index.getEntries();
+            for (Map.Entry<String, ArchiveIndex.Entry> indexed : indexedEntries.entrySet()) {
+                ZipArchiveEntry entry = zip.getEntry(indexed.getKey());
+                if (entry != null) {
+                    checkedEntries.add(indexed.getKey());
+                    entryChecks.add(executor.submit(() -> checkEntry(zip, entry, indexed.getValue())));
+                }
+            }
+
+            ImportReport report = xmlCheck == null ? new ImportReport() : get(xmlCheck);
+            // the following volumes of a split export contain only files
+            if (exportFile == null && (index == null || index.getVolume() <= 1)) {
+                report.addError("The archive does not contain " + InfrastructureArchiveReader.EXPORT_FILE);
+            }
+            if (index == null) {
+                report.addError("The archive does not contain " + ArchiveIndex.ENTRY_NAME);
+                return report;
+            }
+            for (Future<EntryResult> check : entryChecks) {
+                EntryResult result = get(check);
+                report.addFile(result.size);
+                if (result.error != null) {
+                    report.addError(result.error);
+                }
+            }
+            for (String name : indexedEntries.keySet()) {
+                if (!checkedEntries.contains(name)) {
+                    report.addError("Missing entry " + name);
+                }
+            }
+            for (String name : names) {
+                if (!name.equals(ArchiveIndex.ENTRY_NAME) && !indexedEntries.containsKey(name)) {
+                    report.addError("Entry " + name + " is not listed in the index");
+                }
+            }
+            if (exportFile != null) {
+                for (Map.Entry<String, Long> section : index.getEntities().entrySet()) {
+                    long count = report.getEntities().getOrDefault(section.getKey(), 0L);
+                    if (count != section.getValue()) {
+                        report.addError("Section " + section.getKey() + " contains " + count + " entities instead of " + section.getValue());
+                    }
+                }
+            }
+            return report;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private EntryResult checkEntry(ZipFile zip, ZipArchiveEntry entry, ArchiveIndex.Entry expected) {
+        MessageDigest digest = ArchiveIndex.createDigest();
+        long size = 0;
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = zip.getInputStream(entry)) {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+                size += count;
+            }
+        } catch (IOException e) {
+            return new EntryResult(size, "Damaged entry " + entry.getName() + ": " + e.getMessage());
+        }
+        if (size != expected.getSize()) {
+            return new EntryResult(size, "Truncated entry " + entry.getName() + ": " + size + " of " + expected.getSize() + " bytes");
+        }
+        if (!ArchiveIndex.toHex(digest.digest()).equals(expected.getChecksum())) {
+            return new EntryResult(size, "Damaged entry " + entry.getName() + ": the checksum does not match");
+        }
+        return new EntryResult(size, null);
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Verification was interrupted");
+        }
+    }
+
+    private static class EntryResult {
+        private final long size;
+        // null if the entry is complete
+        private final String error;
+
+        private EntryResult(long size, String error) {
+            this.size = size;
+            this.error = error;
+        }
+    }
+}
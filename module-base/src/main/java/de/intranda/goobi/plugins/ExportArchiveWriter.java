@@ -0,0 +1,376 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+/**
+ * Writes the export archive as a zip stream into any output stream, e.g. a temporary file or directly into the http response.
+ *
+ * Parent folders are added as separate entries, entries with a name that was already written are skipped.
+ *
+ * Files can be read and compressed by several threads. The compressed data is written into the archive in the order in which the files were added. With
+ * compression level 0 all files are stored without compression. Large files are streamed, so the memory usage does not depend on the file
+ * sizes.
+ *
+ * If an {@link ArchiveIndex} is set, the size and checksum of the uncompressed content of each entry are added to it.
+ */
+public class ExportArchiveWriter implements Closeable {
+
+    // larger files are streamed into the archive instead of being compressed in memory
+    private static final long MAX_BUFFERED_FILE_SIZE = 16 * 1024 * 1024;
+
+    private final ZipArchiveOutputStream zip;
+    private final Set<String> entryNames = new HashSet<>();
+    private final ExportProgress progress;
+    private final int compressionLevel;
+    private final ExportMetrics.Phase compressPhase;
+    private final ExportMetrics.Phase writePhase;
+
+    // compressed files that are not yet written into the archive
+    private final Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
+    private final ExecutorService executor;
+    private final int maxPendingEntries;
+
+    private ArchiveIndex index;
+
+    public ExportArchiveWriter(OutputStream os, ExportProgress progress) {
+        this(os, progress, Deflater.DEFAULT_COMPRESSION, 1);
+    }
+
+    /**
+     * @param os the stream to write into
+     * @param progress progress of the current export
+     * @param compressionLevel compression level between 0 (no compression) and 9, or -1 for the default level
+     * @param threads number of threads used to compress the files
+     */
+    public ExportArchiveWriter(OutputStream os, ExportProgress progress, int compressionLevel, int threads) {
+        this.progress = progress;
+        this.compressionLevel = compressionLevel;
+        compressPhase = progress.getMetrics().getPhase("archive: compress files");
+        writePhase = progress.getMetrics().getPhase("archive: write files");
+        // the time spent in the target stream, e.g. the disk or the network
+        OutputStream target = new MeasuringOutputStream(new CountingOutputStream(os, progress),
+                progress.getMetrics().getPhase("archive: output"));
+        zip = new ZipArchiveOutputStream(new BufferedOutputStream(target));
+        zip.setLevel(compressionLevel);
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads);
+            maxPendingEntries = threads * 2;
+        } else {
+            executor = null;
+            maxPendingEntries = 0;
+        }
+    }
+
+    /**
+     * Record the size and checksum of all entries that are added afterwards
+     */
+    public void setIndex(ArchiveIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Add a new entry, the content is written by the given callback
+     *
+     * @param name name of the entry inside of the archive
+     * @param content callback to write the content, it must not close the stream
+     * @return true if the entry was written, false if an entry with the same name already exists
+     */
+    public boolean addEntry(String name, EntryContent content) throws IOException {
+        if (!registerEntry(name)) {
+            return false;
+        }
+        writePendingEntries(0);
+        zip.putArchiveEntry(new ZipArchiveEntry(name));
+        // time and size of the compressed entry, the content itself is measured by the caller
+        MeasuringOutputStream out = new MeasuringOutputStream(zip, progress.getMetrics().getPhase("archive: compress " + name));
+        if (index == null) {
+            content.write(out);
+        } else {
+            MessageDigest digest = ArchiveIndex.createDigest();
+            content.write(new DigestOutputStream(out, digest));
+            index.addEntry(name, out.getCount(), ArchiveIndex.toHex(digest.digest()));
+        }
+        zip.closeArchiveEntry();
+        return true;
+    }
+
+    /**
+     * Copy a file into the archive. Folders are ignored.
+     *
+     * @param name name of the entry inside of the archive
+     * @param file the file to copy
+     * @return true if the file was added
+     */
+    public boolean addFile(String name, Path file) throws IOException {
+        progress.checkCancelled();
+        if (!Files.isRegularFile(file)) {
+            return false;
+        }
+        return addFile(name, Files.size(file), () -> Files.newInputStream(file));
+    }
+
+    /**
+     * Copy a file into the archive. Small files are read and compressed by the compression threads, larger files are streamed into the archive.
+     *
+     * @param name name of the entry inside of the archive
+     * @param fileSize size of the file, used to decide if it is streamed
+     * @param content opens the file, the stream is closed afterwards
+     * @return true if the file was added
+     */
+    public boolean addFile(String name, long fileSize, FileContent content) throws IOException {
+        progress.checkCancelled();
+        if (!registerEntry(name)) {
+            return false;
+        }
+        if (fileSize > MAX_BUFFERED_FILE_SIZE) {
+            writePendingEntries(0);
+            long start = System.nanoTime();
+            ZipArchiveEntry entry = new ZipArchiveEntry(name);
+            // the stream cannot be rewound, a known size is needed to add the zip64 fields for entries larger than 4 GB
+            entry.setSize(fileSize);
+            zip.putArchiveEntry(entry);
+            long size;
+            try (InputStream in = content.open()) {
+                if (index == null) {
+                    size = in.transferTo(zip);
+                } else {
+                    MessageDigest digest = ArchiveIndex.createDigest();
+                    size = in.transferTo(new DigestOutputStream(zip, digest));
+                    index.addEntry(name, size, ArchiveIndex.toHex(digest.digest()));
+                }
+            }
+            zip.closeArchiveEntry();
+            writePhase.addTime(System.nanoTime() - start);
+            writePhase.addBytes(size);
+            writePhase.addFile();
+            progress.addFile();
+            return true;
+        }
+        if (executor == null) {
+            pendingEntries.add(new PendingEntry(name, CompletableFuture.completedFuture(compress(content))));
+        } else {
+            pendingEntries.add(new PendingEntry(name, executor.submit(() -> compress(content))));
+        }
+        writePendingEntries(maxPendingEntries);
+        return true;
+    }
+
+    private boolean registerEntry(String name) {
+        if (entryNames.contains(name)) {
+            return false;
+        }
+        // create the parent folders first, like the zip file system does
+        int index = name.indexOf('/');
+        while (index > 0) {
+            String folder = name.substring(0, index + 1);
+            if (entryNames.add(folder)) {
+                pendingEntries.add(new PendingEntry(folder, null));
+            }
+            index = name.indexOf('/', index + 1);
+        }
+        entryNames.add(name);
+        return true;
+    }
+
+    /**
+     * Write the oldest pending entries until only the given number of entries is left
+     */
+    private void writePendingEntries(int remaining) throws IOException {
+        while (pendingEntries.size() > remaining) {
+            PendingEntry pending = pendingEntries.poll();
+            long start = System.nanoTime();
+            ZipArchiveEntry entry = new ZipArchiveEntry(pending.name);
+            if (pending.content == null) {
+                // folder
+                zip.putArchiveEntry(entry);
+                zip.closeArchiveEntry();
+                writePhase.addTime(System.nanoTime() - start);
+                continue;
+            }
+            CompressedFile file;
+            try {
+                file = pending.content.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while compressing " + pending.name);
+            }
+            entry.setMethod(file.method);
+            entry.setCrc(file.crc);
+            entry.setSize(file.size);
+            entry.setCompressedSize(file.data.length);
+            if (index != null) {
+                index.addEntry(pending.name, file.size, file.checksum);
+            }
+            zip.addRawArchiveEntry(entry, new ByteArrayInputStream(file.data));
+            writePhase.addTime(System.nanoTime() - start);
+            writePhase.addBytes(file.data.length);
+            writePhase.addFile();
+            progress.addFile();
+        }
+    }
+
+    private CompressedFile compress(FileContent content) throws IOException {
+        try (ExportMetrics.Timer timer = compressPhase.start(); InputStream in = content.open()) {
+            CompressedFile compressed = compress(in.readAllBytes());
+            compressPhase.addFile();
+            compressPhase.addBytes(compressed.size);
+            return compressed;
+        } catch (IOException e) {
+            compressPhase.addFailure();
+            throw e;
+        }
+    }
+
+    private CompressedFile compress(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        String checksum = index == null ? null : ArchiveIndex.toHex(ArchiveIndex.createDigest().digest(content));
+        if (compressionLevel == Deflater.NO_COMPRESSION) {
+            return new CompressedFile(ZipEntry.STORED, content, crc.getValue(), content.length, checksum);
+        }
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, content.length / 2));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return new CompressedFile(ZipEntry.DEFLATED, out.toByteArray(), crc.getValue(), content.length, checksum);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Write all pending files into the archive and flush the data, e.g. to get the current size of the archive
+     */
+    public void flush() throws IOException {
+        writePendingEntries(0);
+        zip.flush();
+    }
+
+    /**
+     * Finish the archive and flush all data. The underlying stream is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writePendingEntries(0);
+            zip.finish();
+            zip.flush();
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Stop the compression threads without finishing the archive, e.g. after an error or when the export was cancelled. The archive is incomplete
+     * afterwards, the underlying stream is not closed.
+     */
+    public void abort() {
+        pendingEntries.clear();
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class PendingEntry {
+        private final String name;
+        // null for folders
+        private final Future<CompressedFile> content;
+
+        private PendingEntry(String name, Future<CompressedFile> content) {
+            this.name = name;
+            this.content = content;
+        }
+    }
+
+    private static class CompressedFile {
+        private final int method;
+        private final byte[] data;
+        private final long crc;
+        private final long size;
+        // checksum of the uncompressed content, only created for the index
+        private final String checksum;
+
+        private CompressedFile(int method, byte[] data, long crc, long size, String checksum) {
+            this.method = method;
+            this.data = data;
+            this.crc = crc;
+            this.size = size;
+            this.checksum = checksum;
+        }
+    }
+
+    /**
+     * Counts the bytes written into the target stream
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private final ExportProgress progress;
+
+        private CountingOutputStream(OutputStream out, ExportProgress progress) {
+            super(out);
+            this.progress = progress;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            progress.addBytes(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            progress.addBytes(len);
+        }
+    }
+
+    @FunctionalInterface
+    public interface EntryContent {
+        void write(OutputStream os) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface FileContent {
+        InputStream open() throws IOException;
+    }
+}
@@ -0,0 +1,458 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import org.apache.commons.dbutils.QueryRunner;
+import org.apache.commons.dbutils.ResultSetHandler;
+import org.apache.commons.lang.StringUtils;
+import org.goobi.beans.Docket;
+import org.goobi.beans.Institution;
+import org.goobi.beans.InstitutionConfigurationObject;
+import org.goobi.beans.Ldap;
+import org.goobi.beans.Project;
+import org.goobi.beans.ProjectFileGroup;
+import org.goobi.beans.Ruleset;
+import org.goobi.beans.User;
+import org.goobi.beans.Usergroup;
+
+import de.sub.goobi.helper.exceptions.DAOException;
+import de.sub.goobi.persistence.managers.DocketManager;
+import de.sub.goobi.persistence.managers.InstitutionManager;
+import de.sub.goobi.persistence.managers.LdapManager;
+import de.sub.goobi.persistence.managers.MySQLHelper;
+import de.sub.goobi.persistence.managers.ProjectManager;
+import de.sub.goobi.persistence.managers.RulesetManager;
+import de.sub.goobi.persistence.managers.UserManager;
+import de.sub.goobi.persistence.managers.UsergroupManager;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Loads the relations between users, user groups, projects and institutions with a few queries for the complete export.
+ *
+ * The lazy getters of the beans run a separate query for each entity. This class reads each relation once and resolves it from a map afterwards,
+ * so the number of queries does not depend on the number of exported entities. Each relation is loaded on first use.
+ *
+ * All data used by the export is read through this class, it can be replaced by a subclass to run the export without a database.
+ */
+@Log4j
+public class ExportDataLoader {
+
+    private static final String ASSIGNED_PROJECTS = "SELECT pb.BenutzerID, p.ProjekteID, p.Titel FROM projektbenutzer pb "
+            + "JOIN projekte p ON pb.ProjekteID = p.ProjekteID";
+
+    private static final String ASSIGNED_USERS = "SELECT m.BenutzerGruppenID, b.BenutzerID, b.login, b.Vorname, b.Nachname "
+            + "FROM benutzergruppenmitgliedschaft m JOIN benutzer b ON m.BenutzerID = b.BenutzerID";
+
+    private static final String INSTITUTION_CONFIGURATION = "SELECT id, institution_id, object_id, object_type, object_name, selected "
+            + "FROM institution_configuration ORDER BY id";
+
+    // the lists of allowed objects of an institution by the type stored in institution_configuration
+    private static final Map<String, BiConsumer<Institution, List<InstitutionConfigurationObject>>> INSTITUTION_LISTS = new HashMap<>();
+
+    static {
+        INSTITUTION_LISTS.put("authentication", Institution::setAllowedAuthentications);
+        INSTITUTION_LISTS.put("docket", Institution::setAllowedDockets);
+        INSTITUTION_LISTS.put("ruleset", Institution::setAllowedRulesets);
+        INSTITUTION_LISTS.put("administrationPlugin", Institution::setAllowedAdministrationPlugins);
+        INSTITUTION_LISTS.put("workflowPlugin", Institution::setAllowedWorkflowPlugins);
+        INSTITUTION_LISTS.put("dashboardPlugin", Institution::setAllowedDashboardPlugins);
+        INSTITUTION_LISTS.put("statisticsPlugin", Institution::setAllowedStatisticsPlugins);
+    }
+
+    // number of processes whose rows are read with one query
+    private static final int ROW_STATE_PAGE_SIZE = 200;
+
+    private static final String FILEGROUPS = "SELECT ProjectFileGroupID, ProjekteID, name, path, mimetype, suffix, folder FROM projectfilegroups";
+
+    // tables read by the infrastructure export
+    private static final List<String> EXPORT_TABLES = Arrays.asList("benutzer", "benutzergruppen", "benutzergruppenmitgliedschaft", "dockets",
+            "institution", "institution_configuration", "ldapgruppen", "metadatenkonfigurationen", "projectfilegroups", "projektbenutzer", "projekte");
+
+    private List<Docket> dockets;
+    private Map<Integer, Institution> institutions;
+    private List<Institution> institutionList;
+    private Map<Integer, List<Project>> projectsByUser;
+    private Map<Integer, List<User>> usersByUsergroup;
+    private Map<Integer, List<ProjectFileGroup>> filegroupsByProject;
+    private List<Institution> filteredInstitutions;
+
+    // limits the export to some institutions and projects, can be null
+    private ExportFilter filter;
+
+    // durations of the relation queries, can be null
+    private ExportMetrics metrics;
+
+    void setMetrics(ExportMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    void setFilter(ExportFilter filter) {
+        this.filter = filter != null && filter.isActive() ? filter : null;
+    }
+
+    public List<Ldap> getLdaps() throws IOException {
+        if (filter == null) {
+            return LdapManager.getAllLdapsAsList();
+        }
+        try {
+            return LdapManager.getLdaps("titel", filter.getLdapFilter(), null, null, null);
+        } catch (DAOException e) {
+            throw new IOException("Cannot load ldap groups", e);
+        }
+    }
+
+    /**
+     * Get the rulesets. If the export is filtered, only the rulesets allowed in one of the institutions of the exported projects are returned.
+     */
+    public List<Ruleset> getRulesets() throws IOException {
+        List<Ruleset> rulesets = RulesetManager.getAllRulesets();
+        if (filter == null) {
+            return rulesets;
+        }
+        List<Ruleset> allowed = new ArrayList<>();
+        for (Ruleset ruleset : rulesets) {
+            if (isAllowed(ruleset.getTitel(), Institution::isAllowAllRulesets, Institution::getAllowedRulesets)) {
+                allowed.add(ruleset);
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * Get the dockets. If the export is filtered, only the dockets allowed in one of the institutions of the exported projects are returned.
+     */
+    public synchronized List<Docket> getDockets() throws IOException {
+        if (dockets == null) {
+            List<Docket> all = DocketManager.getAllDockets();
+            if (filter == null) {
+                dockets = all;
+            } else {
+                dockets = new ArrayList<>();
+                for (Docket docket : all) {
+                    if (isAllowed(docket.getName(), Institution::isAllowAllDockets, Institution::getAllowedDockets)) {
+                        dockets.add(docket);
+                    }
+                }
+            }
+        }
+        return dockets;
+    }
+
+    public List<Project> getProjects() throws IOException {
+        if (filter == null) {
+            return ProjectManager.getAllProjects();
+        }
+        try {
+            return ProjectManager.getProjects("titel", filter.getProjectFilter(), null, null, null);
+        } catch (DAOException e) {
+            throw new IOException("Cannot load projects", e);
+        }
+    }
+
+    public List<Usergroup> getUsergroups() throws IOException {
+        if (filter == null) {
+            return UsergroupManager.getAllUsergroups();
+        }
+        try {
+            return UsergroupManager.getUsergroups("titel", filter.getUsergroupFilter(), null, null, null);
+        } catch (DAOException e) {
+            throw new IOException("Cannot load user groups", e);
+        }
+    }
+
+    /**
+     * Check if a ruleset or docket is allowed in one of the selected institutions or in the institution of one of the selected projects
+     */
+    private boolean isAllowed(String name, Predicate<Institution> allowAll, Function<Institution, List<InstitutionConfigurationObject>> allowed)
+            throws IOException {
+        for (Institution institution : getFilteredInstitutions()) {
+            if (allowAll.test(institution)) {
+                return true;
+            }
+            for (InstitutionConfigurationObject ico : allowed.apply(institution)) {
+                if (ico.getObject_name().equals(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private synchronized List<Institution> getFilteredInstitutions() throws IOException {
+        if (filteredInstitutions == null) {
+            Set<Integer> ids = new HashSet<>(filter.getInstitutionIds());
+            ids.addAll(query("institutions", "SELECT DISTINCT institution_id FROM projekte WHERE " + filter.getProjectFilter(), rs -> {
+                Set<Integer> projectInstitutions = new HashSet<>();
+                while (rs.next()) {
+                    projectInstitutions.add(rs.getInt(1));
+                }
+                return projectInstitutions;
+            }));
+            filteredInstitutions = new ArrayList<>();
+            for (Integer id : ids) {
+                Institution institution = getInstitution(id);
+                if (institution != null) {
+                    filteredInstitutions.add(institution);
+                }
+            }
+        }
+        return filteredInstitutions;
+    }
+
+    /**
+     * Get a page of users, ordered by id
+     *
+     * @param filter sql filter or null
+     * @param start index of the first user
+     * @param count maximal number of users
+     */
+    public List<User> getUsers(String filter, int start, int count) throws IOException {
+        if (this.filter != null) {
+            filter = StringUtils.isBlank(filter) ? this.filter.getUserFilter() : filter + " AND " + this.filter.getUserFilter();
+        }
+        try {
+            return UserManager.getUsers("BenutzerID", filter, start, count, null);
+        } catch (DAOException e) {
+            throw new IOException("Cannot load users", e);
+        }
+    }
+
+    public synchronized Institution getInstitution(Integer institutionId) {
+        loadInstitutions();
+        return institutions.get(institutionId);
+    }
+
+    public synchronized List<Institution> getAllInstitutions() {
+        loadInstitutions();
+        return institutionList;
+    }
+
+    private void loadInstitutions() {
+        if (institutions == null) {
+            institutionList = InstitutionManager.getAllInstitutionsAsList();
+            institutions = new HashMap<>();
+            for (Institution institution : institutionList) {
+                institutions.put(institution.getId(), institution);
+            }
+            try {
+                loadInstitutionConfiguration();
+            } catch (IOException e) {
+                // the lazy getters of the institutions load the lists instead
+                log.error(e);
+            }
+        }
+    }
+
+    /**
+     * Load the allowed authentications, dockets, plugins and rulesets of all institutions with a single query. Without this, the getters of each
+     * institution run a separate query for each list.
+     */
+    private void loadInstitutionConfiguration() throws IOException {
+        Map<Integer, Map<String, List<InstitutionConfigurationObject>>> configuration = query("institution configuration",
+                INSTITUTION_CONFIGURATION, rs -> {
+                    Map<Integer, Map<String, List<InstitutionConfigurationObject>>> map = new HashMap<>();
+                    while (rs.next()) {
+                        InstitutionConfigurationObject ico = new InstitutionConfigurationObject();
+                        ico.setId(rs.getInt("id"));
+                        ico.setInstitution_id(rs.getInt("institution_id"));
+                        ico.setObject_id(rs.getInt("object_id"));
+                        ico.setObject_type(rs.getString("object_type"));
+                        ico.setObject_name(rs.getString("object_name"));
+                        ico.setSelected(rs.getBoolean("selected"));
+                        map.computeIfAbsent(ico.getInstitution_id(), k -> new HashMap<>())
+                                .computeIfAbsent(ico.getObject_type(), k -> new ArrayList<>())
+                                .add(ico);
+                    }
+                    return map;
+                });
+        for (Institution institution : institutionList) {
+            Map<String, List<InstitutionConfigurationObject>> lists = configuration.getOrDefault(institution.getId(), Collections.emptyMap());
+            for (Map.Entry<String, BiConsumer<Institution, List<InstitutionConfigurationObject>>> list : INSTITUTION_LISTS.entrySet()) {
+                list.getValue().accept(institution, lists.getOrDefault(list.getKey(), new ArrayList<>()));
+            }
+        }
+    }
+
+    /**
+     * Get the projects assigned to a user. The returned projects contain only id and title.
+     */
+    public synchronized List<Project> getProjectsForUser(Integer userId) throws IOException {
+        if (projectsByUser == null) {
+            String sql = ASSIGNED_PROJECTS;
+            if (filter != null) {
+                sql += " WHERE pb.BenutzerID IN (" + filter.getUserIdQuery() + ")";
+            }
+            projectsByUser = query("project assignments", sql + " ORDER BY p.Titel", rs -> {
+                Map<Integer, List<Project>> map = new HashMap<>();
+                while (rs.next()) {
+                    Project project = new Project();
+                    project.setId(rs.getInt("ProjekteID"));
+                    project.setTitel(rs.getString("Titel"));
+                    map.computeIfAbsent(rs.getInt("BenutzerID"), k -> new ArrayList<>()).add(project);
+                }
+                return map;
+            });
+        }
+        return projectsByUser.getOrDefault(userId, Collections.emptyList());
+    }
+
+    /**
+     * Get the members of a user group. The returned users contain only id, login and name.
+     */
+    public synchronized List<User> getUsersForUsergroup(Integer usergroupId) throws IOException {
+        if (usersByUsergroup == null) {
+            String sql = ASSIGNED_USERS;
+            if (filter != null) {
+                sql += " WHERE m.BenutzerGruppenID IN (SELECT BenutzergruppenID FROM benutzergruppen WHERE " + filter.getUsergroupFilter() + ")";
+            }
+            usersByUsergroup = query("user group members", sql + " ORDER BY b.BenutzerID", rs -> {
+                Map<Integer, List<User>> map = new HashMap<>();
+                while (rs.next()) {
+                    User user = new User();
+                    user.setId(rs.getInt("BenutzerID"));
+                    user.setLogin(rs.getString("login"));
+                    user.setVorname(rs.getString("Vorname"));
+                    user.setNachname(rs.getString("Nachname"));
+                    map.computeIfAbsent(rs.getInt("BenutzerGruppenID"), k -> new ArrayList<>()).add(user);
+                }
+                return map;
+            });
+        }
+        return usersByUsergroup.getOrDefault(usergroupId, Collections.emptyList());
+    }
+
+    public synchronized List<ProjectFileGroup> getFilegroupsForProject(Integer projectId) throws IOException {
+        if (filegroupsByProject == null) {
+            String sql = FILEGROUPS;
+            if (filter != null) {
+                sql += " WHERE ProjekteID IN (SELECT ProjekteID FROM projekte WHERE " + filter.getProjectFilter() + ")";
+            }
+            filegroupsByProject = query("project file groups", sql + " ORDER BY ProjectFileGroupID", rs -> {
+                Map<Integer, List<ProjectFileGroup>> map = new HashMap<>();
+                while (rs.next()) {
+                    ProjectFileGroup filegroup = new ProjectFileGroup();
+                    filegroup.setId(rs.getInt("ProjectFileGroupID"));
+                    filegroup.setName(rs.getString("name"));
+                    filegroup.setPath(rs.getString("path"));
+                    filegroup.setMimetype(rs.getString("mimetype"));
+                    filegroup.setSuffix(rs.getString("suffix"));
+                    filegroup.setFolder(rs.getString("folder"));
+                    map.computeIfAbsent(rs.getInt("ProjekteID"), k -> new ArrayList<>()).add(filegroup);
+                }
+                return map;
+            });
+        }
+        return filegroupsByProject.getOrDefault(projectId, Collections.emptyList());
+    }
+
+    /**
+     * Get a short description of the current content of the exported tables. It contains a checksum of all rows of each table, so it changes
+     * whenever a row is added, removed or changed.
+     *
+     * CHECKSUM TABLE reads the complete tables. The exported tables contain only the infrastructure, so this takes much less time than the export.
+     */
+    public String getTableState() throws IOException {
+        return getTableState(EXPORT_TABLES);
+    }
+
+    /**
+     * Get a short description of the current content of the given tables. Tables that do not exist have no checksum, they do not cause an error.
+     */
+    public String getTableState(List<String> tables) throws IOException {
+        return query("table state", "CHECKSUM TABLE " + String.join(", ", tables), rs -> {
+            StringBuilder sb = new StringBuilder();
+            while (rs.next()) {
+                sb.append(rs.getString(1)).append('=').append(rs.getString(2)).append(';');
+            }
+            return sb.toString();
+        });
+    }
+
+    /**
+     * Get a checksum of the rows of each process in a table. All columns are part of the checksum, so it changes whenever a row of the process is
+     * added, removed or changed. The order of the rows does not matter.
+     *
+     * @param from the table, can contain joins to find the process of a row
+     * @param processColumn the column with the process id
+     * @param processIds the processes to check
+     * @return the checksum of each process, processes without rows are missing
+     * @throws IOException if the table cannot be read, e.g. because it does not exist in this Goobi version
+     */
+    public Map<Integer, String> getRowStates(String from, String processColumn, Collection<Integer> processIds) throws IOException {
+        Map<Integer, String> states = new HashMap<>();
+        List<Integer> ids = new ArrayList<>(processIds);
+        // the processes are read in pages, so the size of a result set does not depend on the number of templates
+        for (int start = 0; start < ids.size(); start += ROW_STATE_PAGE_SIZE) {
+            List<Integer> page = ids.subList(start, Math.min(ids.size(), start + ROW_STATE_PAGE_SIZE));
+            String sql = "SELECT *, " + processColumn + " AS goobi2goobi_process FROM " + from + " WHERE " + processColumn + " IN ("
+                    + StringUtils.join(page, ",") + ")";
+            states.putAll(query("row state", sql, rs -> {
+                // each row is hashed when it is read and the checksums of the rows are added up, so the order of the rows does not matter and
+                // the rows are not kept in memory
+                Map<Integer, BigInteger> sums = new HashMap<>();
+                MessageDigest digest = ArchiveIndex.createDigest();
+                int columns = rs.getMetaData().getColumnCount();
+                while (rs.next()) {
+                    for (int i = 1; i <= columns; i++) {
+                        String value = rs.getString(i);
+                        if (value != null) {
+                            digest.update(value.getBytes(StandardCharsets.UTF_8));
+                        }
+                        digest.update((byte) (value == null ? 1 : 0));
+                    }
+                    sums.merge(rs.getInt("goobi2goobi_process"), new BigInteger(1, digest.digest()), BigInteger::add);
+                }
+                Map<Integer, String> pageStates = new HashMap<>();
+                for (Map.Entry<Integer, BigInteger> sum : sums.entrySet()) {
+                    pageStates.put(sum.getKey(), sum.getValue().toString(16));
+                }
+                return pageStates;
+            }));
+        }
+        return states;
+    }
+
+    private <T> T query(String name, String sql, ResultSetHandler<T> handler) throws IOException {
+        ExportMetrics.Phase phase = metrics == null ? null : metrics.getPhase(name + ": load");
+        long start = System.nanoTime();
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            T result = new QueryRunner().query(connection, sql, handler);
+            if (phase != null) {
+                phase.addTime(System.nanoTime() - start);
+            }
+            return result;
+        } catch (SQLException e) {
+            if (phase != null) {
+                phase.addFailure();
+            }
+            throw new IOException("Cannot load export data", e);
+        } finally {
+            if (connection != null) {
+                try {
+                    MySQLHelper.closeConnection(connection);
+                } catch (SQLException e) {
+                    log.error(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Limits the infrastructure export to some institutions and projects. The filter is translated into sql conditions, so only the selected data is
+ * read from the database.
+ *
+ * The projects of the selected institutions are exported together with the selected projects. Users are exported if they belong to a selected
+ * institution or are assigned to one of the exported projects, user groups if they belong to a selected institution or have an exported user as
+ * member. Ldap groups are exported if they are used by an exported user.
+ */
+public class ExportFilter {
+
+    private final List<Integer> institutionIds;
+    private final List<Integer> projectIds;
+
+    public ExportFilter(Collection<Integer> institutionIds, Collection<Integer> projectIds) {
+        // sorted and without duplicates, so the same selection always creates the same key
+        this.institutionIds = institutionIds == null ? new ArrayList<>() : new ArrayList<>(new TreeSet<>(institutionIds));
+        this.projectIds = projectIds == null ? new ArrayList<>() : new ArrayList<>(new TreeSet<>(projectIds));
+    }
+
+    /**
+     * @return true if the export is limited to some institutions or projects
+     */
+    public boolean isActive() {
+        return !institutionIds.isEmpty() || !projectIds.isEmpty();
+    }
+
+    public List<Integer> getInstitutionIds() {
+        return institutionIds;
+    }
+
+    public List<Integer> getProjectIds() {
+        return projectIds;
+    }
+
+    /**
+     * Get a short name of the selection, e.g. to store separate data for each selection
+     */
+    public String getKey() {
+        return "i" + join(institutionIds, "-") + "_p" + join(projectIds, "-");
+    }
+
+    public String getProjectFilter() {
+        return getProjectCondition("");
+    }
+
+    public String getUserFilter() {
+        return "BenutzerID IN (" + getUserIdQuery() + ")";
+    }
+
+    public String getUsergroupFilter() {
+        String members = "BenutzergruppenID IN (SELECT m.BenutzerGruppenID FROM benutzergruppenmitgliedschaft m WHERE m.BenutzerID IN ("
+                + getUserIdQuery() + "))";
+        if (institutionIds.isEmpty()) {
+            return members;
+        }
+        return "(institution_id IN (" + join(institutionIds, ",") + ") OR " + members + ")";
+    }
+
+    public String getLdapFilter() {
+        return "ldapgruppenID IN (SELECT b.ldapgruppenID FROM benutzer b WHERE b.BenutzerID IN (" + getUserIdQuery() + "))";
+    }
+
+    /**
+     * Get a query that returns the ids of all exported users
+     */
+    public String getUserIdQuery() {
+        String query = "SELECT pb.BenutzerID FROM projektbenutzer pb JOIN projekte p ON pb.ProjekteID = p.ProjekteID WHERE "
+                + getProjectCondition("p.");
+        if (!institutionIds.isEmpty()) {
+            query += " UNION SELECT b.BenutzerID FROM benutzer b WHERE b.institution_id IN (" + join(institutionIds, ",") + ")";
+        }
+        return query;
+    }
+
+    private String getProjectCondition(String alias) {
+        List<String> conditions = new ArrayList<>();
+        if (!projectIds.isEmpty()) {
+            conditions.add(alias + "ProjekteID IN (" + join(projectIds, ",") + ")");
+        }
+        if (!institutionIds.isEmpty()) {
+            conditions.add(alias + "institution_id IN (" + join(institutionIds, ",") + ")");
+        }
+        return "(" + String.join(" OR ", conditions) + ")";
+    }
+
+    private static String join(List<Integer> ids, String separator) {
+        return ids.stream().map(String::valueOf).collect(Collectors.joining(separator));
+    }
+}
@@ -0,0 +1,70 @@
+package de.intranda.goobi.plugins;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.jdom2.output.Format;
+
+/**
+ * Output format of the generated xml files. The pretty format is easy to read, the compact formats are faster to write and to parse and need less
+ * space.
+ */
+public enum ExportFormat {
+
+    // indented xml, the default
+    PRETTY(".xml"),
+    // xml without any indentation or line breaks, the text is written unchanged
+    COMPACT(".xml"),
+    // compact xml, compressed with gzip
+    COMPACT_GZIP(".xml.gz");
+
+    private final String fileExtension;
+
+    private ExportFormat(String fileExtension) {
+        this.fileExtension = fileExtension;
+    }
+
+    /**
+     * Get the jdom format to serialize the xml document
+     */
+    public Format getXmlFormat() {
+        Format format = this == PRETTY ? Format.getPrettyFormat() : Format.getRawFormat();
+        format.setEncoding("UTF-8");
+        return format;
+    }
+
+    /**
+     * Get the name of a file in this format
+     *
+     * @param basename name of the file without extension
+     */
+    public String getFileName(String basename) {
+        return basename + fileExtension;
+    }
+
+    /**
+     * Wrap the given stream to write data in this format. The returned stream must be closed to write all data, the given stream stays open.
+     *
+     * @param os the stream to write into
+     */
+    public OutputStream wrap(OutputStream os) throws IOException {
+        // keep the target open when the wrapper is closed
+        OutputStream target = new FilterOutputStream(os) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        if (this == COMPACT_GZIP) {
+            return new GZIPOutputStream(target, 8192);
+        }
+        return target;
+    }
+}
@@ -0,0 +1,155 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.jdom2.Document;
+import org.jdom2.JDOMException;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.XMLOutputter;
+
+/**
+ * Converts export files between the different output formats, e.g. to read a compact export or to create a compact file from a pretty printed
+ * one.
+ *
+ * Single xml files and complete export archives can be converted. In an archive only the xml file is converted, all other entries are copied. The
+ * {@link ArchiveIndex} of an archive is created again, as the xml file gets a new name and checksum.
+ *
+ * <pre>
+ * java -cp ... de.intranda.goobi.plugins.ExportFormatConverter source target PRETTY|COMPACT|COMPACT_GZIP
+ * </pre>
+ */
+public class ExportFormatConverter {
+
+    private static final String EXPORT_FILE = "goobi-to-goobi-export";
+
+    private ExportFormatConverter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: ExportFormatConverter <source> <target> <PRETTY|COMPACT|COMPACT_GZIP>");
+            System.exit(1);
+        }
+        convert(Paths.get(args[0]), Paths.get(args[1]), ExportFormat.valueOf(args[2]));
+    }
+
+    /**
+     * Convert an xml file or an export archive into the given format
+     *
+     * @param source xml file, gzip compressed xml file or zip archive
+     * @param target the file to create
+     * @param format the new format
+     */
+    public static void convert(Path source, Path target, ExportFormat format) throws IOException {
+        boolean archive = source.getFileName().toString().endsWith(".zip");
+        try (InputStream in = Files.newInputStream(source); OutputStream out = Files.newOutputStream(target)) {
+            if (archive) {
+                convertArchive(in, out, format);
+            } else {
+                convertXml(in, out, format);
+            }
+        }
+    }
+
+    /**
+     * Convert the xml file of an export archive, all other entries are copied unchanged. If the archive contains an index, a new index with the
+     * same entity counts is written.
+     *
+     * @param in the source archive
+     * @param out the stream to write the new archive into, it is not closed
+     * @param format the new format of the xml file
+     */
+    public static void convertArchive(InputStream in, OutputStream out, ExportFormat format) throws IOException {
+        try (ZipInputStream zip = new ZipInputStream(in); ExportArchiveWriter archive = new ExportArchiveWriter(out, new ExportProgress())) {
+            ArchiveIndex index = new ArchiveIndex();
+            archive.setIndex(index);
+            ArchiveIndex previousIndex = null;
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (entry.isDirectory()) {
+                    // folders are created together with their files
+                    continue;
+                }
+                if (ArchiveIndex.ENTRY_NAME.equals(name)) {
+                    previousIndex = ArchiveIndex.load(zip);
+                } else if (name.startsWith(EXPORT_FILE + ".xml")) {
+                    archive.addEntry(format.getFileName(EXPORT_FILE), os -> convertXml(zip, os, format));
+                } else {
+                    archive.addEntry(name, zip::transferTo);
+                }
+            }
+            if (previousIndex != null) {
+                for (Map.Entry<String, Long> section : previousIndex.getEntities().entrySet()) {
+                    index.setEntities(section.getKey(), section.getValue());
+                }
+                if (previousIndex.getVolume() > 0) {
+                    index.setVolume(previousIndex.getVolume(), previousIndex.getVolumeCount());
+                }
+                archive.addEntry(ArchiveIndex.ENTRY_NAME, index::store);
+            }
+        }
+    }
+
+    /**
+     * Convert a single xml file. Gzip compressed input is detected automatically.
+     *
+     * @param in the source file
+     * @param out the stream to write into, it is not closed
+     * @param format the new format
+     */
+    public static void convertXml(InputStream in, OutputStream out, ExportFormat format) throws IOException {
+        Document document = parse(in);
+        try (OutputStream os = format.wrap(out)) {
+            new XMLOutputter(format.getXmlFormat()).output(document, os);
+        }
+    }
+
+    private static Document parse(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        InputStream source = buffered;
+        if (first == (GZIPInputStream.GZIP_MAGIC & 0xff) && second == (GZIPInputStream.GZIP_MAGIC >> 8)) {
+            source = new GZIPInputStream(buffered);
+        }
+
+        SAXBuilder builder = new SAXBuilder();
+        builder.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        // the indentation of the pretty format is not part of the data
+        builder.setIgnoringBoundaryWhitespace(true);
+        try {
+            return builder.build(new NonClosingInputStream(source));
+        } catch (JDOMException e) {
+            throw new IOException("Cannot parse the export file", e);
+        }
+    }
+
+    /**
+     * The parser closes its input, but the entries of an archive must be read from the same stream
+     */
+    private static class NonClosingInputStream extends FilterInputStream {
+
+        private NonClosingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() {
+            // keep the source open
+        }
+    }
+}
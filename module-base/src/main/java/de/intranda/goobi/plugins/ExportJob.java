@@ -0,0 +1,95 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.Future;
+
+import de.sub.goobi.helper.StorageProvider;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * An export that runs in the background. The job keeps the progress and, if the export creates a file, the location of the result.
+ */
+@Getter
+public class ExportJob {
+
+    public enum JobStatus {
+        QUEUED,
+        RUNNING,
+        FINISHED,
+        FAILED,
+        CANCELLED
+    }
+
+    @FunctionalInterface
+    public interface Task {
+        void run(ExportJob job) throws IOException;
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String type;
+    private final Date creationDate = new Date();
+    private final ExportProgress progress = new ExportProgress();
+
+    @Setter
+    private volatile JobStatus status = JobStatus.QUEUED;
+    @Setter
+    private volatile Date startDate;
+    @Setter
+    private volatile Date endDate;
+
+    private volatile Path resultFile;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.PACKAGE)
+    private Future<?> future;
+
+    public ExportJob(String type) {
+        this.type = type;
+    }
+
+    /**
+     * Create a new file in a temporary folder of this job, the file is used as result of the job
+     *
+     * @param filename name of the file
+     * @return path to the new file
+     */
+    public Path createResultFile(String filename) throws IOException {
+        Path folder = Files.createTempDirectory("goobi2goobi-export");
+        resultFile = folder.resolve(filename);
+        return resultFile;
+    }
+
+    public boolean isResultAvailable() {
+        return status == JobStatus.FINISHED && resultFile != null && Files.exists(resultFile);
+    }
+
+    public boolean isActive() {
+        return status == JobStatus.QUEUED || status == JobStatus.RUNNING;
+    }
+
+    public void cancel() {
+        progress.cancel();
+        if (future != null) {
+            future.cancel(false);
+        }
+        if (status == JobStatus.QUEUED) {
+            status = JobStatus.CANCELLED;
+        }
+    }
+
+    /**
+     * Remove the temporary folder of the result file
+     */
+    public void deleteResult() {
+        if (resultFile != null) {
+            StorageProvider.getInstance().deleteDir(resultFile.getParent());
+            resultFile = null;
+        }
+    }
+}
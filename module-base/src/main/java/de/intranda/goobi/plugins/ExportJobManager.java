@@ -0,0 +1,128 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Runs export jobs in the background. The number of parallel and waiting jobs is limited, the last jobs are kept to show their status and to
+ * download the results.
+ */
+@Log4j
+public class ExportJobManager {
+
+    private static final int MAX_PARALLEL_JOBS = 2;
+    private static final int MAX_WAITING_JOBS = 10;
+    private static final int MAX_KEPT_JOBS = 20;
+
+    private static ExportJobManager instance;
+
+    private final ThreadPoolExecutor executor;
+
+    // all known jobs, the oldest first
+    private final Map<String, ExportJob> jobs = new LinkedHashMap<>();
+
+    private ExportJobManager() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        executor = new ThreadPoolExecutor(MAX_PARALLEL_JOBS, MAX_PARALLEL_JOBS, 1, TimeUnit.MINUTES, new ArrayBlockingQueue<>(MAX_WAITING_JOBS), r -> {
+            Thread thread = new Thread(r, "goobi2goobi-export-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public static synchronized ExportJobManager getInstance() {
+        if (instance == null) {
+            instance = new ExportJobManager();
+        }
+        return instance;
+    }
+
+    /**
+     * Submit a new job
+     *
+     * @param job the job
+     * @param task the export to run
+     * @throws RejectedExecutionException if too many jobs are waiting already
+     */
+    public void submit(ExportJob job, ExportJob.Task task) {
+        synchronized (jobs) {
+            job.setFuture(executor.submit(() -> run(job, task)));
+            jobs.put(job.getId(), job);
+            removeOldJobs();
+        }
+    }
+
+    public ExportJob getJob(String id) {
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    /**
+     * Get all known jobs, the newest first
+     */
+    public List<ExportJob> getJobs() {
+        List<ExportJob> list;
+        synchronized (jobs) {
+            list = new ArrayList<>(jobs.values());
+        }
+        Collections.reverse(list);
+        return list;
+    }
+
+    private void run(ExportJob job, ExportJob.Task task) {
+        if (job.getProgress().isCancelled()) {
+            job.setStatus(ExportJob.JobStatus.CANCELLED);
+            return;
+        }
+        ExportMetrics metrics = job.getProgress().getMetrics();
+        ExportMetricsRegistry.getInstance().start(metrics, job.getType());
+        job.setStartDate(new Date());
+        job.setStatus(ExportJob.JobStatus.RUNNING);
+        try {
+            task.run(job);
+            job.setStatus(job.getProgress().isCancelled() ? ExportJob.JobStatus.CANCELLED : ExportJob.JobStatus.FINISHED);
+        } catch (CancellationException e) {
+            metrics.fail(e.getMessage());
+            job.setStatus(ExportJob.JobStatus.CANCELLED);
+        } catch (Exception e) {
+            log.error(e);
+            metrics.fail(e.getMessage());
+            job.getProgress().addError(e.getMessage());
+            job.setStatus(ExportJob.JobStatus.FAILED);
+        } finally {
+            metrics.finish();
+            job.setEndDate(new Date());
+            if (job.getStatus() != ExportJob.JobStatus.FINISHED) {
+                job.deleteResult();
+            }
+        }
+    }
+
+    private void removeOldJobs() {
+        int toRemove = jobs.size() - MAX_KEPT_JOBS;
+        Iterator<ExportJob> iterator = jobs.values().iterator();
+        while (toRemove > 0 && iterator.hasNext()) {
+            ExportJob job = iterator.next();
+            if (!job.isActive()) {
+                job.deleteResult();
+                iterator.remove();
+                toRemove--;
+            }
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Collects durations and counters of the phases of a single export run, e.g. loading the users from the database, creating the xml elements or
+ * compressing the files. All methods can be called from different threads.
+ *
+ * Phases can be nested, the duration of a phase contains the time spent in the phases inside of it. Durations of phases that run in several
+ * threads are summed up, so they can be longer than the complete run.
+ */
+@Log4j
+public class ExportMetrics {
+
+    private static final int MAX_SLOWEST_ITEMS = 10;
+
+    @Getter
+    private final String id = UUID.randomUUID().toString();
+    @Getter
+    private volatile String type;
+    @Getter
+    private volatile Date startDate;
+    @Getter
+    private volatile Date endDate;
+    @Getter
+    private volatile String error;
+
+    private volatile long startTime;
+    private volatile long endTime;
+
+    // all phases in the order in which they were started
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    // the slowest single items, e.g. templates, the slowest first
+    private final List<Item> slowestItems = new ArrayList<>();
+
+    /**
+     * Start the time measurement of the complete run
+     *
+     * @param type type of the export, e.g. infrastructure or templates
+     */
+    public void start(String type) {
+        this.type = type;
+        startDate = new Date();
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Stop the time measurement and write a summary into the log file
+     */
+    public void finish() {
+        if (endDate != null) {
+            return;
+        }
+        endTime = System.nanoTime();
+        endDate = new Date();
+        if (error == null) {
+            log.info(getSummary());
+        } else {
+            log.warn(getSummary());
+        }
+    }
+
+    /**
+     * Mark the run as failed and stop the time measurement
+     *
+     * @param error description of the problem
+     */
+    public void fail(String error) {
+        this.error = error == null ? "unknown error" : error;
+        finish();
+    }
+
+    public boolean isRunning() {
+        return startDate != null && endDate == null;
+    }
+
+    public boolean isFailed() {
+        return error != null;
+    }
+
+    public long getDurationMillis() {
+        if (startDate == null) {
+            return 0;
+        }
+        long end = endDate == null ? System.nanoTime() : endTime;
+        return (end - startTime) / 1_000_000;
+    }
+
+    /**
+     * Get the phase with the given name, it is created if it does not exist yet
+     */
+    public Phase getPhase(String name) {
+        synchronized (phases) {
+            return phases.computeIfAbsent(name, Phase::new);
+        }
+    }
+
+    public List<Phase> getPhases() {
+        synchronized (phases) {
+            return new ArrayList<>(phases.values());
+        }
+    }
+
+    /**
+     * Record the duration of a single item. Only the slowest items are kept.
+     *
+     * @param name name of the item
+     * @param nanos duration in nanoseconds
+     * @param bytes number of written bytes
+     * @param failed true if the item could not be exported
+     */
+    public void addItem(String name, long nanos, long bytes, boolean failed) {
+        synchronized (slowestItems) {
+            if (slowestItems.size() == MAX_SLOWEST_ITEMS && slowestItems.get(MAX_SLOWEST_ITEMS - 1).nanos >= nanos) {
+                return;
+            }
+            slowestItems.add(new Item(name, nanos, bytes, failed));
+            slowestItems.sort(Comparator.comparingLong(Item::getNanos).reversed());
+            if (slowestItems.size() > MAX_SLOWEST_ITEMS) {
+                slowestItems.remove(MAX_SLOWEST_ITEMS);
+            }
+        }
+    }
+
+    public List<Item> getSlowestItems() {
+        synchronized (slowestItems) {
+            return Collections.unmodifiableList(new ArrayList<>(slowestItems));
+        }
+    }
+
+    /**
+     * Get a single line with the duration and the counters of all phases
+     */
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Export ").append(type).append(isFailed() ? " failed" : " finished").append(" after ").append(getDurationMillis()).append(" ms");
+        if (isFailed()) {
+            sb.append(" (").append(error).append(')');
+        }
+        for (Phase phase : getPhases()) {
+            sb.append("; ").append(phase.getName()).append(": ").append(phase.getDurationMillis()).append(" ms");
+            if (phase.getEntities() > 0) {
+                sb.append(", ").append(phase.getEntities()).append(" entities");
+            }
+            if (phase.getFiles() > 0) {
+                sb.append(", ").append(phase.getFiles()).append(" files");
+            }
+            if (phase.getBytes() > 0) {
+                sb.append(", ").append(phase.getBytes()).append(" bytes");
+            }
+            if (phase.getHeapDelta() > 0) {
+                sb.append(", heap +").append(phase.getHeapDelta() / 1024).append(" kb");
+            }
+            if (phase.getFailures() > 0) {
+                sb.append(", ").append(phase.getFailures()).append(" failures");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Durations and counters of a single phase
+     */
+    public static class Phase {
+
+        @Getter
+        private final String name;
+        private final AtomicLong nanos = new AtomicLong();
+        private final AtomicLong entities = new AtomicLong();
+        private final AtomicLong files = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong heapDelta = new AtomicLong();
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Start a time measurement, the duration and the heap growth are added to this phase when the timer is closed
+         */
+        public Timer start() {
+            return new Timer(this);
+        }
+
+        public void addTime(long nanoseconds) {
+            nanos.addAndGet(nanoseconds);
+        }
+
+        public void addEntities(long count) {
+            entities.addAndGet(count);
+        }
+
+        public void addFile() {
+            files.incrementAndGet();
+        }
+
+        public void addFiles(long count) {
+            files.addAndGet(count);
+        }
+
+        public void addBytes(long count) {
+            bytes.addAndGet(count);
+        }
+
+        public void addFailure() {
+            failures.incrementAndGet();
+        }
+
+        public long getDurationMillis() {
+            return nanos.get() / 1_000_000;
+        }
+
+        public long getEntities() {
+            return entities.get();
+        }
+
+        public long getFiles() {
+            return files.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        /**
+         * Get the highest growth of the used heap, measured between start and end of a timer
+         */
+        public long getHeapDelta() {
+            return heapDelta.get();
+        }
+
+        private void updateHeapDelta(long delta) {
+            heapDelta.accumulateAndGet(delta, Math::max);
+        }
+    }
+
+    /**
+     * Measures a single execution of a phase
+     */
+    public static class Timer implements AutoCloseable {
+
+        private final Phase phase;
+        private final long startTime = System.nanoTime();
+        private final long startHeap = getUsedHeap();
+
+        private Timer(Phase phase) {
+            this.phase = phase;
+        }
+
+        @Override
+        public void close() {
+            phase.addTime(System.nanoTime() - startTime);
+            phase.updateHeapDelta(getUsedHeap() - startHeap);
+        }
+    }
+
+    /**
+     * Duration of a single item, e.g. a template
+     */
+    @Getter
+    public static class Item {
+        private final String name;
+        private final long nanos;
+        private final long bytes;
+        private final boolean failed;
+
+        private Item(String name, long nanos, long bytes, boolean failed) {
+            this.name = name;
+            this.nanos = nanos;
+            this.bytes = bytes;
+            this.failed = failed;
+        }
+
+        public long getDurationMillis() {
+            return nanos / 1_000_000;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Keeps the metrics of the last export runs, including the exports that were not started as background job.
+ */
+public class ExportMetricsRegistry {
+
+    private static final int MAX_KEPT_RUNS = 20;
+
+    private static ExportMetricsRegistry instance;
+
+    // the newest run first
+    private final Deque<ExportMetrics> runs = new ArrayDeque<>();
+
+    private ExportMetricsRegistry() {
+    }
+
+    public static synchronized ExportMetricsRegistry getInstance() {
+        if (instance == null) {
+            instance = new ExportMetricsRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Start the time measurement of a new run and add its metrics to the registry
+     *
+     * @param metrics the metrics of the run
+     * @param type type of the export
+     */
+    public void start(ExportMetrics metrics, String type) {
+        metrics.start(type);
+        synchronized (runs) {
+            runs.addFirst(metrics);
+            while (runs.size() > MAX_KEPT_RUNS) {
+                runs.removeLast();
+            }
+        }
+    }
+
+    /**
+     * Get the metrics of the last runs, the newest first
+     */
+    public List<ExportMetrics> getRuns() {
+        synchronized (runs) {
+            return new ArrayList<>(runs);
+        }
+    }
+
+    public ExportMetrics getRun(String id) {
+        synchronized (runs) {
+            for (ExportMetrics metrics : runs) {
+                if (metrics.getId().equals(id)) {
+                    return metrics;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,94 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the progress and the messages of a single export run. All methods can be called from different threads.
+ */
+public class ExportProgress {
+
+    private final AtomicLong entities = new AtomicLong();
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+    private final ExportMetrics metrics = new ExportMetrics();
+
+    private volatile boolean cancelled = false;
+
+    public void addEntity() {
+        entities.incrementAndGet();
+    }
+
+    public void addFile() {
+        files.incrementAndGet();
+    }
+
+    public void addBytes(long count) {
+        bytes.addAndGet(count);
+    }
+
+    public long getEntities() {
+        return entities.get();
+    }
+
+    public long getFiles() {
+        return files.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public void addMessage(String message) {
+        messages.add(message);
+    }
+
+    public void addError(String error) {
+        errors.add(error);
+    }
+
+    public List<String> getMessages() {
+        synchronized (messages) {
+            return new ArrayList<>(messages);
+        }
+    }
+
+    public List<String> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<>(errors);
+        }
+    }
+
+    /**
+     * Get the durations and counters of the single phases of the export
+     */
+    public ExportMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Stop the current export if it was cancelled in the meantime
+     *
+     * @throws CancellationException if the export was cancelled
+     */
+    public void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Export was cancelled");
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Keeps finished infrastructure archives on disk, so repeated downloads with the same options do not create the archive again.
+ *
+ * An archive is identified by a checksum of the export options, the checksums of the exported tables and, if the files are included, the names,
+ * dates and sizes of the ruleset and docket files. The checksum changes whenever the data changes, so outdated archives are never used.
+ *
+ * The least recently used archives are removed when the cache gets larger than the configured size.
+ */
+@Log4j
+public class ExportResultCache {
+
+    private static final String FILE_SUFFIX = ".zip";
+
+    private final Path folder;
+    private final long maxSize;
+    private final long maxAge;
+
+    /**
+     * @param folder folder for the cached archives
+     * @param maxSize maximum size of all archives in bytes
+     * @param maxAge maximum age of an archive in milliseconds, 0 to use it as long as the data does not change
+     */
+    public ExportResultCache(Path folder, long maxSize, long maxAge) {
+        this.folder = folder;
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Create the cache from the <code>exportCache</code> element of the plugin configuration
+     *
+     * @return the cache or null, if the cache is disabled
+     */
+    public static ExportResultCache fromConfiguration(XMLConfiguration config) {
+        if (!config.getBoolean("exportCache.enabled", false)) {
+            return null;
+        }
+        String folder = config.getString("exportCache.folder",
+                Paths.get(ConfigurationHelper.getInstance().getTemporaryFolder(), "goobi2goobi_export_cache").toString());
+        long maxSize = config.getLong("exportCache.maxSize", 1024) * 1024 * 1024;
+        long maxAge = config.getLong("exportCache.maxAge", 0) * 60 * 1000;
+        return new ExportResultCache(Paths.get(folder), maxSize, maxAge);
+    }
+
+    /**
+     * Get the checksum of the current data for the given export options
+     *
+     * @param options the export options, see {@link InfrastructureExporter#getCacheKey()}
+     * @param loader loader to read the state of the exported tables
+     * @param includeFiles true if the ruleset and docket files are part of the archive
+     */
+    public String getChecksum(String options, ExportDataLoader loader, boolean includeFiles) throws IOException {
+        StringBuilder state = new StringBuilder(options).append('|').append(loader.getTableState());
+        if (includeFiles) {
+            appendFolderState(state, Paths.get(ConfigurationHelper.getInstance().getRulesetFolder()));
+            appendFolderState(state, Paths.get(ConfigurationHelper.getInstance().getXsltFolder()));
+        }
+        return TemplateManifest.createChecksum(state.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void appendFolderState(StringBuilder state, Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return;
+        }
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(path)) {
+            files = stream.sorted().collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            state.append('|').append(file.getFileName()).append(':').append(Files.getLastModifiedTime(file).toMillis()).append(':').append(Files
+                    .size(file));
+        }
+    }
+
+    /**
+     * Open the cached archive for the checksum. The archive is opened here, so it can still be read when another export removes it from the
+     * cache in the meantime.
+     *
+     * @return the content of the archive or null, if it is not cached or too old. The caller must close the stream.
+     */
+    public InputStream open(String checksum) {
+        Path file = folder.resolve(checksum + FILE_SUFFIX);
+        try {
+            if (maxAge > 0 && Files.getLastModifiedTime(file).toMillis() < System.currentTimeMillis() - maxAge) {
+                Files.deleteIfExists(file);
+                return null;
+            }
+            InputStream in = Files.newInputStream(file);
+            // the access time is used to find the least recently used archives, it is stored in a separate file as the modification date is the
+            // creation date of the archive
+            Files.write(getAccessFile(checksum), new byte[0]);
+            return in;
+        } catch (NoSuchFileException e) {
+            // not cached or removed by another export
+            return null;
+        } catch (IOException e) {
+            log.error(e);
+            return null;
+        }
+    }
+
+    /**
+     * Add a new archive to the cache. The file is moved into the cache folder.
+     *
+     * @return the cached archive
+     */
+    public Path store(String checksum, Path archive) throws IOException {
+        Files.createDirectories(folder);
+        Path file = folder.resolve(checksum + FILE_SUFFIX);
+        // each export uses its own temporary file, identical exports can be stored at the same time
+        Path temporaryFile = Files.createTempFile(folder, checksum, ".tmp");
+        try {
+            Files.move(archive, temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+        Files.write(getAccessFile(checksum), new byte[0]);
+        evict(file);
+        return file;
+    }
+
+    private Path getAccessFile(String checksum) {
+        return folder.resolve(checksum + ".access");
+    }
+
+    /**
+     * Remove the least recently used archives until the cache fits into the configured size. The new archive is always kept.
+     */
+    private void evict(Path keep) {
+        List<Path> archives = new ArrayList<>();
+        try (Stream<Path> files = Files.list(folder)) {
+            files.filter(p -> p.getFileName().toString().endsWith(FILE_SUFFIX)).forEach(archives::add);
+        } catch (IOException e) {
+            log.error(e);
+            return;
+        }
+        archives.sort(Comparator.comparing(this::getLastAccess));
+        long size = 0;
+        for (Path archive : archives) {
+            size += archive.toFile().length();
+        }
+        for (Path archive : archives) {
+            if (size <= maxSize) {
+                break;
+            }
+            if (archive.equals(keep)) {
+                continue;
+            }
+            long length = archive.toFile().length();
+            try {
+                String name = archive.getFileName().toString();
+                Files.deleteIfExists(archive);
+                Files.deleteIfExists(getAccessFile(name.substring(0, name.length() - FILE_SUFFIX.length())));
+                size -= length;
+            } catch (IOException e) {
+                log.error(e);
+            }
+        }
+    }
+
+    private FileTime getLastAccess(Path archive) {
+        String name = archive.getFileName().toString();
+        Path accessFile = getAccessFile(name.substring(0, name.length() - FILE_SUFFIX.length()));
+        try {
+            return Files.getLastModifiedTime(Files.exists(accessFile) ? accessFile : archive);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package de.intranda.goobi.plugins;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+import org.apache.commons.lang.StringUtils;
+import org.quartz.CronExpression;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Starts the headless export at the times defined by the cron expression in the <code>schedule</code> element of the plugin configuration. The
+ * exports run as background jobs, so they are listed in the user interface as well.
+ *
+ * The scheduler is started when Goobi loads the plugin for the first time. If the plugin is loaded again by a new class loader, e.g. after a
+ * redeployment, the scheduler of the old class loader is stopped, so there is only one scheduler thread. The configuration is read again for
+ * each run, a changed cron expression is used for the following run. If no valid expression is configured, the configuration is checked again
+ * every hour.
+ */
+@Log4j
+public class ExportScheduler {
+
+    private static final long CONFIGURATION_CHECK_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    // the system properties are shared by all class loaders, the running scheduler stores a callback to stop it there
+    private static final String STOP_HOOK = ExportScheduler.class.getName() + ".stop";
+
+    private static ExportScheduler instance;
+    private static Runnable stopHook;
+
+    private final ScheduledExecutorService executor;
+
+    private ExportScheduler() {
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "goobi2goobi-export-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start the scheduler. Further calls have no effect until it is stopped.
+     */
+    public static synchronized void start() {
+        if (instance != null) {
+            return;
+        }
+        instance = new ExportScheduler();
+        stopHook = ExportScheduler::stop;
+        Object previous = System.getProperties().put(STOP_HOOK, stopHook);
+        if (previous instanceof Runnable) {
+            // the scheduler of an older class loader of this plugin
+            ((Runnable) previous).run();
+        }
+        instance.scheduleNextRun();
+    }
+
+    /**
+     * Stop the scheduler and its thread. Exports that were started already are not interrupted, they run in the {@link ExportJobManager}.
+     */
+    public static synchronized void stop() {
+        if (instance != null) {
+            instance.executor.shutdownNow();
+            instance = null;
+            // a newer class loader may have replaced the hook already
+            System.getProperties().remove(STOP_HOOK, stopHook);
+            stopHook = null;
+        }
+    }
+
+    private void scheduleNextRun() {
+        long delay = CONFIGURATION_CHECK_INTERVAL;
+        CronExpression cron = null;
+        try {
+            cron = getCronExpression(HeadlessExportRunner.getConfiguration());
+        } catch (RuntimeException e) {
+            log.error("Cannot read the configuration of the scheduled export", e);
+        }
+        Date next = cron == null ? null : cron.getNextValidTimeAfter(new Date());
+        if (next != null) {
+            log.debug("Next scheduled export at " + next);
+            delay = Math.max(0, next.getTime() - System.currentTimeMillis());
+        }
+        try {
+            executor.schedule(next == null ? this::scheduleNextRun : this::runExport, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // the scheduler was stopped in the meantime
+        }
+    }
+
+    private static CronExpression getCronExpression(XMLConfiguration config) {
+        String expression = config.getString("schedule.cron", null);
+        if (StringUtils.isBlank(expression)) {
+            return null;
+        }
+        try {
+            return new CronExpression(expression);
+        } catch (ParseException e) {
+            log.error("Invalid cron expression for the scheduled export: " + expression, e);
+            return null;
+        }
+    }
+
+    private void runExport() {
+        try {
+            HeadlessExportRunner runner = new HeadlessExportRunner(HeadlessExportRunner.getConfiguration());
+            ExportJob job = new ExportJob("scheduled " + runner.getType());
+            ExportJobManager.getInstance().submit(job, j -> runner.run(j.getProgress()));
+        } catch (RejectedExecutionException e) {
+            log.error("Scheduled export was skipped, too many export jobs are waiting", e);
+        } catch (RuntimeException e) {
+            log.error(e);
+        } finally {
+            scheduleNextRun();
+        }
+    }
+}
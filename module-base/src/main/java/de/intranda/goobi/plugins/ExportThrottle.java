@@ -0,0 +1,99 @@
+package de.intranda.goobi.plugins;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.LocalTime;
+
+/**
+ * Limits the read rate of an export during a configured time window, e.g. during working hours. Outside of the window the data is copied without
+ * limit.
+ */
+public class ExportThrottle {
+
+    private final long bytesPerSecond;
+    private final LocalTime windowStart;
+    private final LocalTime windowEnd;
+
+    // start of the current measuring interval and the bytes copied since then
+    private long intervalStart = System.nanoTime();
+    private long intervalBytes;
+
+    /**
+     * @param bytesPerSecond maximum rate, 0 or less disables the throttle
+     * @param windowStart begin of the throttled time, null to throttle all the time
+     * @param windowEnd end of the throttled time, can be before the start to span midnight
+     */
+    public ExportThrottle(long bytesPerSecond, LocalTime windowStart, LocalTime windowEnd) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.windowStart = windowStart;
+        this.windowEnd = windowEnd;
+    }
+
+    public boolean isActive() {
+        if (bytesPerSecond <= 0) {
+            return false;
+        }
+        if (windowStart == null || windowEnd == null) {
+            return true;
+        }
+        LocalTime now = LocalTime.now();
+        if (windowStart.isBefore(windowEnd)) {
+            return !now.isBefore(windowStart) && now.isBefore(windowEnd);
+        }
+        return !now.isBefore(windowStart) || now.isBefore(windowEnd);
+    }
+
+    /**
+     * Limit the read rate of the stream. The limit is shared by all streams of this throttle, so several threads can read at the same time.
+     */
+    public InputStream wrap(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    acquire(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count = super.read(b, off, len);
+                if (count > 0) {
+                    acquire(count);
+                }
+                return count;
+            }
+        };
+    }
+
+    /**
+     * Wait until the given number of bytes may be processed
+     */
+    public synchronized void acquire(long bytes) throws IOException {
+        if (!isActive()) {
+            return;
+        }
+        long now = System.nanoTime();
+        long elapsed = now - intervalStart;
+        if (elapsed > 1_000_000_000L) {
+            // start a new interval, a pause does not allow a burst afterwards
+            intervalStart = now;
+            intervalBytes = 0;
+            elapsed = 0;
+        }
+        intervalBytes += bytes;
+        long expected = intervalBytes * 1_000_000_000L / bytesPerSecond;
+        if (expected > elapsed) {
+            try {
+                Thread.sleep((expected - elapsed) / 1_000_000L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the throttle");
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Remembers the checksums of files together with their modification date and size. A file is only read and hashed again if one of them changed.
+ */
+@Log4j
+public class FileChecksumCache {
+
+    private final Path file;
+    // values are stored as modification time:size:checksum
+    private final Map<String, String> entries = new HashMap<>();
+    private boolean changed = false;
+
+    public FileChecksumCache(Path file) {
+        this.file = file;
+        if (Files.exists(file)) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            } catch (IOException e) {
+                // start with an empty cache, all files get hashed again
+                log.error(e);
+            }
+            for (String path : properties.stringPropertyNames()) {
+                entries.put(path, properties.getProperty(path));
+            }
+        }
+    }
+
+    /**
+     * Get the SHA-256 checksum of the file content. The cached value is used if the file was not modified since it was hashed.
+     *
+     * @param path the file
+     * @return the checksum
+     */
+    public String getChecksum(Path path) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        String key = path.toAbsolutePath().normalize().toString();
+        String prefix = attributes.lastModifiedTime().toMillis() + ":" + attributes.size() + ":";
+        synchronized (entries) {
+            String entry = entries.get(key);
+            if (entry != null && entry.startsWith(prefix)) {
+                return entry.substring(prefix.length());
+            }
+        }
+        String checksum = TemplateManifest.createChecksum(Files.readAllBytes(path));
+        synchronized (entries) {
+            entries.put(key, prefix + checksum);
+            changed = true;
+        }
+        return checksum;
+    }
+
+    /**
+     * Write the cache if new checksums were added
+     */
+    public void save() throws IOException {
+        Properties properties = new Properties();
+        synchronized (entries) {
+            if (!changed) {
+                return;
+            }
+            properties.putAll(entries);
+            changed = false;
+        }
+        StateFiles.write(file, out -> properties.store(out, "checksums of the exported ruleset and docket files"));
+    }
+}
@@ -0,0 +1,293 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+
+import de.sub.goobi.config.ConfigPlugins;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Runs the exports without a user interface, e.g. from the scheduler or from the command line. The export options are read from the
+ * <code>schedule</code> element of the plugin configuration, the archives are written into the configured target folder and old archives are
+ * removed.
+ *
+ * <pre>
+ * java -cp ... de.intranda.goobi.plugins.HeadlessExportRunner [infrastructure|templates|processes|all] [targetFolder]
+ * </pre>
+ *
+ * If the infrastructure export is split into volumes, a single volume can be written again, e.g. after a failed upload:
+ *
+ * <pre>
+ * java -cp ... de.intranda.goobi.plugins.HeadlessExportRunner volume targetFolder goobi-to-goobi-export_20240101-020000 2
+ * </pre>
+ */
+@Log4j
+public class HeadlessExportRunner {
+
+    private static final String PLUGIN_TITLE = "intranda_administration_goobi2goobi_export";
+    private static final String FILE_PREFIX = "goobi-to-goobi-export_";
+    private static final String DATE_FORMAT = "yyyyMMdd-HHmmss";
+
+    private final GoobiToGoobiExportPlugin plugin;
+    private final String type;
+    private final Path targetFolder;
+    private final int keptArchives;
+    private final String processFilter;
+    private final boolean verify;
+    // maximum size of a volume in bytes, 0 to write a single archive
+    private final long maxVolumeSize;
+    private final int volumeThreads;
+
+    public HeadlessExportRunner(XMLConfiguration config) {
+        this(config, config.getString("schedule.type", "infrastructure"), config.getString("schedule.targetFolder", null));
+    }
+
+    /**
+     * @param config the plugin configuration
+     * @param type infrastructure, templates, processes or all
+     * @param targetFolder folder to write the archives into
+     */
+    public HeadlessExportRunner(XMLConfiguration config, String type, String targetFolder) {
+        this.type = type;
+        this.targetFolder = targetFolder == null ? null : Paths.get(targetFolder);
+        keptArchives = Math.max(1, config.getInt("schedule.keep", 7));
+        processFilter = config.getString("schedule.processFilter", null);
+        verify = config.getBoolean("schedule.verify", false);
+        maxVolumeSize = config.getLong("schedule.volumes.maxSize", 0) * 1024 * 1024;
+        volumeThreads = config.getInt("schedule.volumes.threads", 4);
+        plugin = new ConfiguredPlugin(config);
+        plugin.setLdapGroups(config.getBoolean("schedule.ldapGroups", true));
+        plugin.setUserGroups(config.getBoolean("schedule.userGroups", true));
+        plugin.setUser(config.getBoolean("schedule.user", true));
+        plugin.setIncludeInactiveUser(config.getBoolean("schedule.includeInactiveUser", true));
+        plugin.setCreateNewPasswords(config.getBoolean("schedule.createNewPasswords", true));
+        plugin.setProjectAssignments(config.getBoolean("schedule.projectAssignments", true));
+        plugin.setUsergroupAssignments(config.getBoolean("schedule.usergroupAssignments", true));
+        plugin.setProjects(config.getBoolean("schedule.projects", true));
+        plugin.setRulesets(config.getBoolean("schedule.rulesets", true));
+        plugin.setDockets(config.getBoolean("schedule.dockets", true));
+        plugin.setIncludeFiles(config.getBoolean("schedule.includeFiles", true));
+        plugin.setCompactInstitutions(config.getBoolean("schedule.compactInstitutions", false));
+        plugin.setDeltaExport(config.getBoolean("schedule.deltaExport", false));
+        plugin.setIncrementalTemplateExport(config.getBoolean("schedule.incrementalTemplateExport", true));
+        plugin.setExportFormat(ExportFormat.valueOf(config.getString("schedule.exportFormat", ExportFormat.PRETTY.name())));
+        plugin.setSelectedInstitutions(config.getList(Integer.class, "schedule.institution", Collections.emptyList()).toArray(new Integer[0]));
+        plugin.setSelectedProjects(config.getList(Integer.class, "schedule.project", Collections.emptyList()).toArray(new Integer[0]));
+    }
+
+    /**
+     * Read the current plugin configuration
+     */
+    static XMLConfiguration getConfiguration() {
+        return ConfigPlugins.getPluginConfig(PLUGIN_TITLE);
+    }
+
+    public static void main(String[] args) throws IOException {
+        XMLConfiguration config = getConfiguration();
+        String type = args.length > 0 ? args[0] : config.getString("schedule.type", "infrastructure");
+        String targetFolder = args.length > 1 ? args[1] : config.getString("schedule.targetFolder", null);
+        ExportProgress progress = new ExportProgress();
+        ExportMetricsRegistry.getInstance().start(progress.getMetrics(), type);
+        try {
+            HeadlessExportRunner runner = new HeadlessExportRunner(config, type, targetFolder);
+            if ("volume".equals(type)) {
+                if (args.length < 4) {
+                    System.err.println("Usage: HeadlessExportRunner volume <targetFolder> <basename> <number>");
+                    System.exit(1);
+                }
+                Path volume = runner.writeVolume(progress, args[2], Integer.parseInt(args[3]));
+                progress.addMessage("Volume written to " + volume);
+            } else {
+                runner.run(progress);
+            }
+        } finally {
+            progress.getMetrics().finish();
+        }
+        for (String message : progress.getMessages()) {
+            System.out.println(message);
+        }
+        for (String error : progress.getErrors()) {
+            System.err.println(error);
+        }
+        System.exit(progress.getErrors().isEmpty() ? 0 : 1);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Run the configured exports
+     *
+     * @param progress progress of the run
+     */
+    public void run(ExportProgress progress) throws IOException {
+        if (("infrastructure".equals(type) || "all".equals(type)) && maxVolumeSize > 0) {
+            writeInfrastructureVolumes(progress);
+        } else if ("infrastructure".equals(type) || "all".equals(type)) {
+            Path archive = writeInfrastructure(progress);
+            progress.addMessage("Infrastructure export written to " + archive);
+        }
+        if ("templates".equals(type) || "all".equals(type)) {
+            plugin.createTemplateExporter(progress).run();
+        }
+        if ("processes".equals(type)) {
+            new ProcessBundleExporter(plugin.getConfiguration(), processFilter, plugin.getExportFormat(), progress).run();
+        }
+    }
+
+    /**
+     * Write the infrastructure archive into the target folder. The archive is written into a temporary file first, so an incomplete archive never
+     * replaces a complete one. If the verification is enabled, an archive with errors is removed and the export fails.
+     *
+     * @return the new archive
+     */
+    private Path writeInfrastructure(ExportProgress progress) throws IOException {
+        if (targetFolder == null) {
+            throw new IOException("No target folder configured for the scheduled export");
+        }
+        Files.createDirectories(targetFolder);
+        String name = FILE_PREFIX + new SimpleDateFormat(DATE_FORMAT).format(new Date()) + ".zip";
+        Path archive = targetFolder.resolve(name);
+        Path temporaryFile = targetFolder.resolve(name + ".part");
+        try (OutputStream os = Files.newOutputStream(temporaryFile)) {
+            new InfrastructureExporter(plugin, progress).writeArchive(os);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporaryFile);
+            throw e;
+        }
+        if (verify) {
+            ImportReport report = new ArchiveVerifier(Runtime.getRuntime().availableProcessors()).verify(temporaryFile);
+            if (!report.isValid()) {
+                Files.deleteIfExists(temporaryFile);
+            }
+            checkReport(name, report, progress);
+        }
+        Files.move(temporaryFile, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        removeOldArchives();
+        return archive;
+    }
+
+    /**
+     * Write the infrastructure export as several volumes into the target folder. The volumes are named like a single archive with the number of
+     * the volume, e.g. <code>goobi-to-goobi-export_20240101-020000_001.zip</code>.
+     *
+     * @return the new volumes
+     */
+    private List<Path> writeInfrastructureVolumes(ExportProgress progress) throws IOException {
+        if (targetFolder == null) {
+            throw new IOException("No target folder configured for the scheduled export");
+        }
+        Files.createDirectories(targetFolder);
+        String basename = FILE_PREFIX + new SimpleDateFormat(DATE_FORMAT).format(new Date());
+        InfrastructureExporter exporter = new InfrastructureExporter(plugin, progress);
+        List<Path> volumes = exporter.writeVolumes(targetFolder, basename, maxVolumeSize, volumeThreads);
+        if (verify) {
+            ArchiveVerifier verifier = new ArchiveVerifier(Runtime.getRuntime().availableProcessors());
+            for (int i = 0; i < volumes.size(); i++) {
+                Path volume = volumes.get(i);
+                ImportReport report = verifier.verify(volume);
+                if (!report.isValid() && !plugin.isDeltaExport()) {
+                    // the other volumes are kept, only the damaged one is written again
+                    progress.addMessage("Verification of " + volume.getFileName() + " failed, the volume is written again");
+                    exporter.writeVolume(targetFolder, basename, maxVolumeSize, i + 1);
+                    report = verifier.verify(volume);
+                }
+                checkReport(volume.getFileName().toString(), report, progress);
+            }
+        }
+        removeOldArchives();
+        return volumes;
+    }
+
+    /**
+     * Write a single volume of a previous infrastructure export again. The volume is replaced.
+     *
+     * @param basename name of the export, e.g. goobi-to-goobi-export_20240101-020000
+     * @param number number of the volume, starting with 1
+     * @return the new volume
+     */
+    public Path writeVolume(ExportProgress progress, String basename, int number) throws IOException {
+        if (targetFolder == null || maxVolumeSize <= 0) {
+            throw new IOException("No target folder or volume size configured for the scheduled export");
+        }
+        Path volume = new InfrastructureExporter(plugin, progress).writeVolume(targetFolder, basename, maxVolumeSize, number);
+        if (verify) {
+            checkReport(volume.getFileName().toString(), new ArchiveVerifier(Runtime.getRuntime().availableProcessors()).verify(volume), progress);
+        }
+        return volume;
+    }
+
+    /**
+     * Add the result of a verification to the progress
+     *
+     * @throws IOException if the archive contains errors
+     */
+    private static void checkReport(String name, ImportReport report, ExportProgress progress) throws IOException {
+        if (!report.isValid()) {
+            for (String error : report.getErrors()) {
+                progress.addError(error);
+            }
+            throw new IOException("The verification of " + name + " failed with " + report.getErrorCount() + " errors");
+        }
+        progress.addMessage("Verified " + name + ": " + report.getFiles() + " entries");
+    }
+
+    /**
+     * Keep only the newest archives, the file names start with the creation date. The volumes of an export are kept or removed together.
+     */
+    private void removeOldArchives() {
+        // archives and volumes by the name of the export
+        Map<String, List<Path>> exports = new TreeMap<>();
+        int nameLength = FILE_PREFIX.length() + DATE_FORMAT.length();
+        try (Stream<Path> files = Files.list(targetFolder)) {
+            files.filter(p -> p.getFileName().toString().startsWith(FILE_PREFIX) && p.getFileName().toString().endsWith(".zip"))
+                    .filter(p -> p.getFileName().toString().length() > nameLength)
+                    .forEach(p -> exports.computeIfAbsent(p.getFileName().toString().substring(0, nameLength), k -> new ArrayList<>()).add(p));
+        } catch (IOException e) {
+            log.error(e);
+            return;
+        }
+        List<List<Path>> archives = new ArrayList<>(exports.values());
+        for (int i = 0; i < archives.size() - keptArchives; i++) {
+            for (Path archive : archives.get(i)) {
+                try {
+                    Files.delete(archive);
+                } catch (IOException e) {
+                    log.error(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Uses the given configuration instead of reading it again
+     */
+    private static class ConfiguredPlugin extends GoobiToGoobiExportPlugin {
+
+        private final XMLConfiguration config;
+
+        private ConfiguredPlugin(XMLConfiguration config) {
+            this.config = config;
+        }
+
+        @Override
+        XMLConfiguration getConfiguration() {
+            return config;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * Result of reading an export archive: the number of entities per section, the extracted files and the problems found.
+ */
+@Getter
+public class ImportReport {
+
+    // only the first problems are kept, the total number is counted
+    private static final int MAX_ERRORS = 1000;
+
+    private final Map<String, Long> entities = new LinkedHashMap<>();
+    private final List<String> errors = new ArrayList<>();
+    private long errorCount;
+    private long files;
+    private long bytes;
+    private long batches;
+
+    void addEntity(String section) {
+        entities.merge(section, 1L, Long::sum);
+    }
+
+    void addFile(long size) {
+        files++;
+        bytes += size;
+    }
+
+    void addBatch() {
+        batches++;
+    }
+
+    void addError(String error) {
+        errorCount++;
+        if (errors.size() < MAX_ERRORS) {
+            errors.add(error);
+        }
+    }
+
+    public boolean isValid() {
+        return errorCount == 0;
+    }
+
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> entry : entities.entrySet()) {
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        sb.append("files: ").append(files).append(" (").append(bytes).append(" bytes)\n");
+        sb.append("batches: ").append(batches).append('\n');
+        sb.append("errors: ").append(errorCount).append('\n');
+        for (String error : errors) {
+            sb.append("  ").append(error).append('\n');
+        }
+        if (errorCount > errors.size()) {
+            sb.append("  ...\n");
+        }
+        return sb.toString();
+    }
+}
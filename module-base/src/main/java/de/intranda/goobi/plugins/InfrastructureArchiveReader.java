@@ -0,0 +1,418 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+
+/**
+ * Reads an infrastructure export archive as a stream, the counterpart of {@link InfrastructureExporter}. Only a single entity of the xml file and
+ * a single file of the archive are kept in memory at a time.
+ *
+ * While reading, the references between the entities are checked: the assigned projects of the users, the members of the user groups, the ldap
+ * groups of the users, the institutions and the ruleset and docket files. The ids are kept in compact bit sets, so the check needs little memory
+ * even for many users. References are only checked if the referenced section is part of the archive. Delta archives contain only the changed
+ * entities, so their references are not checked.
+ *
+ * The entities can be passed in batches to an {@link EntityHandler}. Without a handler the archive is only verified. This plugin does not contain a
+ * handler that writes the entities into the database: the import into another Goobi instance is done by the import plugin of the target system,
+ * which maps the ids and existing entities. A handler for such an import should write each batch in one transaction. As references can point to
+ * entities further down in the file, a complete check before any data is written needs a dry run first.
+ *
+ * <pre>
+ * java -cp ... de.intranda.goobi.plugins.InfrastructureArchiveReader archive.zip [extractFolder]
+ * </pre>
+ */
+public class InfrastructureArchiveReader {
+
+    static final String EXPORT_FILE = "goobi-to-goobi-export.xml";
+
+    /**
+     * Receives the entities of a section. The reader does not write anything into the database itself, applying the entities is up to the
+     * implementation.
+     */
+    @FunctionalInterface
+    public interface EntityHandler {
+        /**
+         * @param section name of the section, e.g. users
+         * @param entities the next entities of the section
+         */
+        void apply(String section, List<Element> entities) throws IOException;
+    }
+
+    private final EntityHandler handler;
+    private final int batchSize;
+    private final Path extractFolder;
+
+    private final ImportReport report = new ImportReport();
+
+    // ids of the entities in the archive
+    private final BitSet institutionIds = new BitSet();
+    private final BitSet projectIds = new BitSet();
+    private final BitSet userIds = new BitSet();
+    private final Set<String> ldapTitles = new HashSet<>();
+    private final Set<String> sections = new HashSet<>();
+
+    // references that can only be checked at the end, the referenced entities may follow later
+    private final References usergroupMembers = new References();
+    private final References userProjects = new References();
+    private final References institutionReferences = new References();
+    // files referenced by rulesets and dockets, the files are stored after the xml file
+    private final Set<String> referencedFiles = new HashSet<>();
+    private final Map<String, String> fileChecksums = new HashMap<>();
+    private final Set<String> entryNames = new HashSet<>();
+
+    private boolean delta;
+
+    /**
+     * @param handler receives the entities, null to verify the archive only
+     * @param batchSize number of entities per batch
+     * @param extractFolder folder to extract the files into, null to skip the files
+     */
+    public InfrastructureArchiveReader(EntityHandler handler, int batchSize, Path extractFolder) {
+        this.handler = handler;
+        this.batchSize = Math.max(1, batchSize);
+        this.extractFolder = extractFolder == null ? null : extractFolder.toAbsolutePath().normalize();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: InfrastructureArchiveReader <archive> [extractFolder]");
+            System.exit(1);
+        }
+        InfrastructureArchiveReader reader = new InfrastructureArchiveReader(null, 500, args.length > 1 ? Paths.get(args[1]) : null);
+        ImportReport report;
+        try (InputStream in = Files.newInputStream(Paths.get(args[0]))) {
+            report = reader.read(in);
+        }
+        System.out.println(report.getSummary());
+        System.exit(report.isValid() ? 0 : 1);
+    }
+
+    /**
+     * Read the archive
+     *
+     * @param in the zip archive, it is not closed
+     * @return the result
+     */
+    public ImportReport read(InputStream in) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        boolean xmlFound = false;
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            String name = entry.getName();
+            if (entry.isDirectory()) {
+                continue;
+            }
+            entryNames.add(name);
+            if (isExportFile(name)) {
+                xmlFound = true;
+                readXml(name.endsWith(".gz") ? new GZIPInputStream(zip) : zip);
+            } else {
+                readFile(name, zip);
+            }
+        }
+        if (!xmlFound) {
+            report.addError("The archive does not contain " + EXPORT_FILE);
+        }
+        checkReferences();
+        return report;
+    }
+
+    /**
+     * Read only the xml file of an archive. The files are not read, their names are used to check the references to the ruleset and docket
+     * files.
+     *
+     * @param name name of the xml entry
+     * @param in content of the xml entry, it is not closed
+     * @param names names of all entries of the archive
+     * @return the result
+     */
+    ImportReport readExportFile(String name, InputStream in, Collection<String> names) throws IOException {
+        entryNames.addAll(names);
+        readXml(name.endsWith(".gz") ? new GZIPInputStream(in) : in);
+        checkReferences();
+        return report;
+    }
+
+    static boolean isExportFile(String name) {
+        return name.equals(EXPORT_FILE) || name.equals(EXPORT_FILE + ".gz");
+    }
+
+    private void readFile(String name, InputStream in) throws IOException {
+        if (extractFolder == null) {
+            long size = 0;
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                size += count;
+            }
+            report.addFile(size);
+            return;
+        }
+        Path target = extractFolder.resolve(name).normalize();
+        if (!target.startsWith(extractFolder)) {
+            report.addError("Entry outside of the target folder: " + name);
+            return;
+        }
+        Files.createDirectories(target.getParent());
+        report.addFile(Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING));
+    }
+
+    private void readXml(InputStream in) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            int depth = 0;
+            String section = null;
+            // without a handler the entities are only checked, so no batch is collected
+            List<Element> batch = handler == null ? null : new ArrayList<>(Math.min(batchSize, 1024));
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (depth == 0) {
+                        delta = "true".equals(reader.getAttributeValue(null, "delta"));
+                        depth++;
+                    } else if (depth == 1) {
+                        section = reader.getLocalName();
+                        sections.add(section);
+                        depth++;
+                    } else {
+                        Element entity = readElement(reader);
+                        readEntity(section, entity);
+                        if (batch != null) {
+                            batch.add(entity);
+                            if (batch.size() >= batchSize) {
+                                applyBatch(section, batch);
+                            }
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                    if (depth == 1) {
+                        if (batch != null) {
+                            applyBatch(section, batch);
+                        }
+                        section = null;
+                    }
+                }
+            }
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException("Cannot read " + EXPORT_FILE, e);
+        }
+    }
+
+    /**
+     * Create the element at the current position of the reader with all its children. The reader stops at the end tag of the element.
+     */
+    private static Element readElement(XMLStreamReader reader) throws XMLStreamException {
+        Element element = createElement(reader);
+        // the element has no parent, so the loop ends with its end tag
+        Element current = element;
+        while (current != null) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    Element child = createElement(reader);
+                    current.addContent(child);
+                    current = child;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    current = current.getParentElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                    // indentation is not needed
+                    if (!reader.isWhiteSpace()) {
+                        current.addContent(reader.getText());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return element;
+    }
+
+    private static Element createElement(XMLStreamReader reader) {
+        String uri = reader.getNamespaceURI();
+        Element element = new Element(reader.getLocalName(), uri == null ? Namespace.NO_NAMESPACE : Namespace.getNamespace(reader.getPrefix(), uri));
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+        }
+        return element;
+    }
+
+    private void applyBatch(String section, List<Element> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        handler.apply(section, new ArrayList<>(batch));
+        report.addBatch();
+        batch.clear();
+    }
+
+    private void readEntity(String section, Element entity) {
+        report.addEntity(section);
+        switch (section) {
+            case "institutions":
+                setId(institutionIds, section, entity.getAttributeValue("id"));
+                break;
+            case "ldaps":
+                ldapTitles.add(entity.getAttributeValue("title"));
+                break;
+            case "rulesets":
+                referencedFiles.add("rulesets/" + entity.getAttributeValue("file"));
+                break;
+            case "dockets":
+                referencedFiles.add("dockets/" + entity.getAttributeValue("file"));
+                break;
+            case "projects": {
+                int id = setId(projectIds, section, entity.getChildText("id", entity.getNamespace()));
+                readInstitution(id, entity);
+                break;
+            }
+            case "userGroups": {
+                int id = parseId(section, entity.getAttributeValue("id"));
+                Element members = entity.getChild("assignedUsers", entity.getNamespace());
+                if (members != null) {
+                    for (Element member : members.getChildren("user", entity.getNamespace())) {
+                        usergroupMembers.add(id, parseId(section, member.getAttributeValue("id")));
+                    }
+                }
+                readInstitution(id, entity);
+                break;
+            }
+            case "users": {
+                int id = setId(userIds, section, entity.getAttributeValue("id"));
+                Element assignedProjects = entity.getChild("assignedProjects", entity.getNamespace());
+                if (assignedProjects != null) {
+                    for (Element project : assignedProjects.getChildren("project", entity.getNamespace())) {
+                        userProjects.add(id, parseId(section, project.getAttributeValue("id")));
+                    }
+                }
+                String ldapGroup = entity.getAttributeValue("ldapgroup");
+                if (!delta && sections.contains("ldaps") && ldapGroup != null && !ldapGroup.isEmpty() && !ldapTitles.contains(ldapGroup)) {
+                    report.addError("User " + id + " uses the unknown ldap group " + ldapGroup);
+                }
+                readInstitution(id, entity);
+                break;
+            }
+            case "files":
+                fileChecksums.put(entity.getAttributeValue("name"), entity.getAttributeValue("checksum"));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Register an inline institution or remember a reference to the institutions section
+     */
+    private void readInstitution(int owner, Element entity) {
+        Element institution = entity.getChild("institution", entity.getNamespace());
+        if (institution == null) {
+            return;
+        }
+        int id = parseId("institution", institution.getAttributeValue("id"));
+        if (institution.getAttributes().size() == 1) {
+            institutionReferences.add(owner, id);
+        } else if (id >= 0) {
+            institutionIds.set(id);
+        }
+    }
+
+    private int setId(BitSet ids, String section, String value) {
+        int id = parseId(section, value);
+        if (id >= 0) {
+            if (ids.get(id)) {
+                report.addError("Duplicate id " + id + " in " + section);
+            }
+            ids.set(id);
+        }
+        return id;
+    }
+
+    private int parseId(String section, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            report.addError("Invalid id '" + value + "' in " + section);
+            return -1;
+        }
+    }
+
+    private void checkReferences() {
+        if (delta) {
+            return;
+        }
+        if (sections.contains("users")) {
+            usergroupMembers.check(userIds, "User group %d has the unknown member %d");
+        }
+        if (sections.contains("projects")) {
+            userProjects.check(projectIds, "User %d is assigned to the unknown project %d");
+        }
+        institutionReferences.check(institutionIds, "Entity %d refers to the unknown institution %d");
+        // the files are only checked if the archive contains files at all
+        boolean filesIncluded = entryNames.stream().anyMatch(n -> n.startsWith("rulesets/") || n.startsWith("dockets/") || n.startsWith("files/"));
+        if (filesIncluded) {
+            for (String file : referencedFiles) {
+                String checksum = fileChecksums.get(file);
+                if (!entryNames.contains(file) && (checksum == null || !entryNames.contains("files/" + checksum))) {
+                    report.addError("Missing file " + file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Pairs of ids, stored in growing int arrays
+     */
+    private class References {
+        private int[] sources = new int[64];
+        private int[] targets = new int[64];
+        private int size;
+
+        private void add(int source, int target) {
+            if (size == sources.length) {
+                sources = Arrays.copyOf(sources, size * 2);
+                targets = Arrays.copyOf(targets, size * 2);
+            }
+            sources[size] = source;
+            targets[size] = target;
+            size++;
+        }
+
+        private void check(BitSet ids, String message) {
+            for (int i = 0; i < size; i++) {
+                if (targets[i] < 0 || !ids.get(targets[i])) {
+                    report.addError(String.format(message, sources[i], targets[i]));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,1252 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.zip.Deflater;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+import org.apache.commons.lang.StringUtils;
+import org.goobi.beans.Docket;
+import org.goobi.beans.Institution;
+import org.goobi.beans.InstitutionConfigurationObject;
+import org.goobi.beans.Ldap;
+import org.goobi.beans.Project;
+import org.goobi.beans.ProjectFileGroup;
+import org.goobi.beans.Ruleset;
+import org.goobi.beans.User;
+import org.goobi.beans.Usergroup;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import de.sub.goobi.helper.StorageProvider;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Creates the infrastructure export. The selected options are copied when the exporter is created, so the export is not affected by later
+ * changes in the user interface.
+ */
+@Log4j
+public class InfrastructureExporter {
+
+    private static Namespace xmlns = Namespace.getNamespace("http://www.goobi.io/logfile");
+    private static final long DEFAULT_BUFFER_MEMORY = 16 * 1024 * 1024;
+
+    private final boolean ldapGroups;
+    private final boolean userGroups;
+    private final boolean user;
+    private final boolean includeInactiveUser;
+    private final boolean createNewPasswords;
+    private final boolean projectAssignments;
+    private final boolean usergroupAssignments;
+    private final boolean projects;
+    private final boolean rulesets;
+    private final boolean dockets;
+    private final boolean includeFiles;
+    private final boolean compactInstitutions;
+    private final int userPageSize;
+    private final int compressionLevel;
+    private final int compressionThreads;
+    private final boolean deltaExport;
+    private final Path manifestFile;
+    private final ExportFilter filter;
+    private final Path deltaBaseline;
+    private final boolean deduplicateFiles;
+    private final ExportFormat exportFormat;
+    private final Path checksumCacheFile;
+    // limits of the buffer between the xml serialization and the archive, no buffer is used if the memory limit is 0
+    private final long bufferMemory;
+    private final long bufferDisk;
+    // folder for the data that does not fit into memory
+    private final Path bufferFolder;
+    // number of threads to create the sections of the xml file
+    private final int sectionThreads;
+    // add an index with the checksums of all entries to the archive
+    private final boolean archiveIndex;
+
+    private final ExportProgress progress;
+    private final ExportDataLoader loader;
+    private final ExportMetrics metrics;
+
+    // institution elements by institution id, they are created once and copied for each entity
+    private final Map<Integer, Element> institutionElements = new ConcurrentHashMap<>();
+    private final Map<Integer, Element> detailedInstitutionElements = new ConcurrentHashMap<>();
+
+    // checksums of the previous and of the current export, only used for the delta export
+    private InfrastructureManifest baseline;
+    private InfrastructureManifest current;
+    private final XMLOutputter checksumOutputter = new XMLOutputter(Format.getRawFormat());
+
+    // names of the files in the archive and their checksums, only used if the files are stored by their content
+    private Map<String, String> fileReferences;
+
+    // number of written entities of each section, used for the archive index
+    private final Map<String, AtomicLong> writtenEntities = new ConcurrentHashMap<>();
+
+    public InfrastructureExporter(GoobiToGoobiExportPlugin plugin, ExportProgress progress) {
+        this(plugin, progress, new ExportDataLoader());
+    }
+
+    InfrastructureExporter(GoobiToGoobiExportPlugin plugin, ExportProgress progress, ExportDataLoader loader) {
+        this.loader = loader;
+        ldapGroups = plugin.isLdapGroups();
+        userGroups = plugin.isUserGroups();
+        user = plugin.isUser();
+        includeInactiveUser = plugin.isIncludeInactiveUser();
+        createNewPasswords = plugin.isCreateNewPasswords();
+        projectAssignments = plugin.isProjectAssignments();
+        usergroupAssignments = plugin.isUsergroupAssignments();
+        projects = plugin.isProjects();
+        rulesets = plugin.isRulesets();
+        dockets = plugin.isDockets();
+        includeFiles = plugin.isIncludeFiles();
+        compactInstitutions = plugin.isCompactInstitutions();
+        filter = plugin.getExportFilter();
+        loader.setFilter(filter);
+        XMLConfiguration config = plugin.getConfiguration();
+        userPageSize = Math.max(1, config.getInt("userPageSize", 500));
+        compressionLevel = Math.max(Deflater.DEFAULT_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, config.getInt("compressionLevel",
+                Deflater.DEFAULT_COMPRESSION)));
+        compressionThreads = config.getInt("compressionThreads", 1);
+        deltaExport = plugin.isDeltaExport();
+        Path manifest = getConfiguredFile(config, "infrastructureManifest", "goobi2goobi_infrastructure_manifest.properties");
+        if (filter.isActive()) {
+            // each selection gets its own baseline, otherwise the entities of the other selection would be reported as removed
+            manifest = manifest.resolveSibling(manifest.getFileName().toString() + "." + filter.getKey());
+        }
+        manifestFile = manifest;
+        String baselineFile = config.getString("deltaBaseline", null);
+        deltaBaseline = StringUtils.isBlank(baselineFile) ? manifestFile : Paths.get(baselineFile);
+        deduplicateFiles = config.getBoolean("deduplicateFiles", false);
+        exportFormat = plugin.getExportFormat();
+        checksumCacheFile = getConfiguredFile(config, "fileChecksumCache", "goobi2goobi_file_checksums.properties");
+        bufferMemory = config.getLong("exportBuffer.memory", 16) * 1024 * 1024;
+        bufferDisk = config.getLong("exportBuffer.disk", 1024) * 1024 * 1024;
+        String folder = config.getString("exportBuffer.folder", null);
+        bufferFolder = StringUtils.isBlank(folder) ? Paths.get(ConfigurationHelper.getInstance().getTemporaryFolder()) : Paths.get(folder);
+        sectionThreads = config.getInt("sectionThreads", 1);
+        archiveIndex = config.getBoolean("archiveIndex", false);
+        this.progress = progress;
+        metrics = progress.getMetrics();
+        loader.setMetrics(metrics);
+    }
+
+    /**
+     * Get a file from the configuration, the default is a file in the goobi tmp folder
+     */
+    private static Path getConfiguredFile(XMLConfiguration config, String key, String defaultName) {
+        String file = config.getString(key, null);
+        if (StringUtils.isBlank(file)) {
+            return Paths.get(ConfigurationHelper.getInstance().getTemporaryFolder(), defaultName);
+        }
+        return Paths.get(file);
+    }
+
+    /**
+     * Write the xml file and, if selected, the ruleset and docket files as zip archive into the given stream.
+     *
+     * In delta mode only the entities and files that changed since the previous export are written, together with a list of the removed ones. The
+     * checksums of the current export are added to the archive and stored as new baseline afterwards.
+     *
+     * If the files are deduplicated, each file content is stored only once as <code>files/checksum</code> and the xml file lists the original names
+     * with their checksums.
+     *
+     * If the archive index is enabled, the size and checksum of each entry and the number of entities of each section are added as last entry, so
+     * the archive can be checked with the {@link ArchiveVerifier}.
+     *
+     * @param os the stream to write into, it is not closed
+     */
+    public void writeArchive(OutputStream os) throws IOException {
+        Map<String, Path> files = prepareFiles();
+        try (ExportArchiveWriter archive = new ExportArchiveWriter(os, progress, compressionLevel, compressionThreads)) {
+            ArchiveIndex index = null;
+            if (archiveIndex) {
+                index = new ArchiveIndex();
+                archive.setIndex(index);
+            }
+            writeData(archive, index);
+            for (Map.Entry<String, Path> file : files.entrySet()) {
+                archive.addFile(file.getKey(), file.getValue());
+            }
+            if (index != null) {
+                archive.addEntry(ArchiveIndex.ENTRY_NAME, index::store);
+            }
+        }
+        finishDelta();
+    }
+
+    /**
+     * Write the export as several archives into the folder. The first volume contains the xml file, the ruleset and docket files are distributed
+     * over the following volumes, so that no volume gets larger than the given size. Only a single file larger than the limit gets a volume of its
+     * own. Each volume is a complete zip file with its own {@link ArchiveIndex}.
+     *
+     * The volumes are written in parallel. A volume that fails is written again by itself. If the export is cancelled or fails again, the
+     * temporary files of the unfinished volumes are removed.
+     *
+     * @param folder folder to write the volumes into
+     * @param basename name of the volumes, the number and the extension are added
+     * @param maxVolumeSize maximum size of the files in a volume in bytes
+     * @param threads number of volumes that are written at the same time
+     * @return the written volumes
+     */
+    public List<Path> writeVolumes(Path folder, String basename, long maxVolumeSize, int threads) throws IOException {
+        List<Map<String, Path>> plan = getVolumePlan(prepareFiles(), maxVolumeSize);
+        int count = plan.size() + 1;
+        List<Future<Path>> futures = new ArrayList<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, count)));
+        List<Path> volumes = new ArrayList<>();
+        try {
+            for (int i = 1; i <= count; i++) {
+                int number = i;
+                futures.add(executor.submit(() -> writeVolume(folder, basename, number, count, plan)));
+            }
+            for (int i = 1; i <= count; i++) {
+                try {
+                    volumes.add(waitFor(futures.get(i - 1)));
+                } catch (CancellationException e) {
+                    throw e;
+                } catch (IOException | RuntimeException e) {
+                    log.error(e);
+                    progress.addMessage("Volume " + i + " failed, it is written again: " + e.getMessage());
+                    volumes.add(writeVolume(folder, basename, i, count, plan));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            if (volumes.size() < count) {
+                removeUnfinishedVolumes(executor, folder, basename, volumes.size() + 1, count);
+            }
+        }
+        finishDelta();
+        progress.addMessage("Infrastructure export written into " + count + " volumes in " + folder);
+        return volumes;
+    }
+
+    /**
+     * Write a single volume again, e.g. after a failed upload. The ruleset and docket files are distributed in the same way as before, as long as
+     * they did not change.
+     *
+     * @param number number of the volume, starting with 1
+     * @return the written volume
+     */
+    public Path writeVolume(Path folder, String basename, long maxVolumeSize, int number) throws IOException {
+        if (deltaExport) {
+            // the baseline was replaced by the first run, so the changes cannot be found again
+            throw new IOException("The volumes of a delta export cannot be written again, start a new export instead");
+        }
+        List<Map<String, Path>> plan = getVolumePlan(prepareFiles(), maxVolumeSize);
+        if (number < 1 || number > plan.size() + 1) {
+            throw new IOException("The export has " + (plan.size() + 1) + " volumes, volume " + number + " does not exist");
+        }
+        return writeVolume(folder, basename, number, plan.size() + 1, plan);
+    }
+
+    /**
+     * Wait until the remaining volumes are stopped and remove their temporary files
+     *
+     * @param first number of the first unfinished volume
+     * @param last number of the last volume
+     */
+    private void removeUnfinishedVolumes(ExecutorService executor, Path folder, String basename, int first, int last) {
+        try {
+            if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                log.warn("The volumes of " + basename + " are still written, their temporary files are removed anyway");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (int i = first; i <= last; i++) {
+            try {
+                Files.deleteIfExists(folder.resolve(getVolumeName(basename, i) + ".part"));
+            } catch (IOException e) {
+                log.error(e);
+            }
+        }
+    }
+
+    public static String getVolumeName(String basename, int number) {
+        return basename + String.format("_%03d", number) + ".zip";
+    }
+
+    private Path writeVolume(Path folder, String basename, int number, int count, List<Map<String, Path>> plan) throws IOException {
+        Path volume = folder.resolve(getVolumeName(basename, number));
+        Path temporaryFile = folder.resolve(volume.getFileName().toString() + ".part");
+        try (OutputStream os = Files.newOutputStream(temporaryFile);
+                ExportArchiveWriter archive = new ExportArchiveWriter(os, progress, compressionLevel, compressionThreads)) {
+            ArchiveIndex index = new ArchiveIndex();
+            index.setVolume(number, count);
+            archive.setIndex(index);
+            if (number == 1) {
+                writeData(archive, index);
+            } else {
+                for (Map.Entry<String, Path> file : plan.get(number - 2).entrySet()) {
+                    archive.addFile(file.getKey(), file.getValue());
+                }
+            }
+            archive.addEntry(ArchiveIndex.ENTRY_NAME, index::store);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporaryFile);
+            throw e;
+        }
+        Files.move(temporaryFile, volume, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return volume;
+    }
+
+    /**
+     * Distribute the files over the volumes in their usual order. A new volume is started when the next file does not fit into the current one.
+     *
+     * @return the files of the second and all following volumes
+     */
+    private List<Map<String, Path>> getVolumePlan(Map<String, Path> files, long maxVolumeSize) throws IOException {
+        List<Map<String, Path>> plan = new ArrayList<>();
+        Map<String, Path> current = null;
+        long size = 0;
+        for (Map.Entry<String, Path> file : files.entrySet()) {
+            if (!Files.isRegularFile(file.getValue())) {
+                continue;
+            }
+            long fileSize = Files.size(file.getValue());
+            if (current == null || (!current.isEmpty() && size + fileSize > maxVolumeSize)) {
+                current = new LinkedHashMap<>();
+                plan.add(current);
+                size = 0;
+            }
+            current.put(file.getKey(), file.getValue());
+            size += fileSize;
+        }
+        return plan;
+    }
+
+    /**
+     * Write the xml file and, in delta mode, the manifest. The number of entities of each section is added to the index.
+     */
+    private void writeData(ExportArchiveWriter archive, ArchiveIndex index) throws IOException {
+        archive.addEntry(exportFormat.getFileName("goobi-to-goobi-export"), this::writeXmlEntry);
+        if (deltaExport) {
+            archive.addEntry(InfrastructureManifest.ENTRY_NAME, current::store);
+        }
+        if (index != null) {
+            for (Map.Entry<String, AtomicLong> section : writtenEntities.entrySet()) {
+                index.setEntities(section.getKey(), section.getValue().get());
+            }
+        }
+    }
+
+    /**
+     * Store the checksums of this export as baseline for the next delta export
+     */
+    private void finishDelta() throws IOException {
+        if (deltaExport) {
+            current.save(manifestFile);
+            progress.addMessage("Delta export finished: " + metrics.getPhase("delta: changed").getEntities() + " changed, "
+                    + metrics.getPhase("delta: unchanged").getEntities() + " unchanged, " + metrics.getPhase("delta: removed").getEntities()
+                    + " removed");
+        }
+    }
+
+    /**
+     * Collect the ruleset and docket files of the archive. In delta mode only the changed files are returned. If the files are deduplicated, the
+     * files are returned by their checksums and each content is included only once.
+     *
+     * @return the files by their names inside of the archive
+     */
+    private Map<String, Path> prepareFiles() throws IOException {
+        Map<String, Path> files = new LinkedHashMap<>();
+        if (includeFiles) {
+            if (rulesets && filter.isActive()) {
+                // copy only the files of the exported rulesets
+                for (Ruleset ruleset : loader.getRulesets()) {
+                    Path rulesetPath = Paths.get(ConfigurationHelper.getInstance().getRulesetFolder(), ruleset.getDatei());
+                    files.putIfAbsent("rulesets/" + ruleset.getDatei(), rulesetPath);
+                }
+            } else if (rulesets) {
+                // copy ruleset files
+                for (Path ruleset : StorageProvider.getInstance().listFiles(ConfigurationHelper.getInstance().getRulesetFolder())) {
+                    files.putIfAbsent("rulesets/" + ruleset.getFileName().toString(), ruleset);
+                }
+            }
+            if (dockets) {
+                // copy docket files
+                for (Docket docket : loader.getDockets()) {
+                    Path docketPath = Paths.get(ConfigurationHelper.getInstance().getXsltFolder(), docket.getFile());
+                    files.putIfAbsent("dockets/" + docket.getFile(), docketPath);
+                }
+            }
+        }
+        Map<String, String> checksums = null;
+        if (deltaExport || deduplicateFiles) {
+            checksums = getFileChecksums(files);
+        }
+        if (deltaExport) {
+            prepareDelta();
+            // compare the files first, so the removed files can be listed in the xml file
+            files = getChangedFiles(files, checksums);
+        }
+        if (!deduplicateFiles) {
+            return files;
+        }
+        // files with the same content are only added once
+        fileReferences = new LinkedHashMap<>();
+        Map<String, Path> entries = new LinkedHashMap<>();
+        for (Map.Entry<String, Path> file : files.entrySet()) {
+            String checksum = checksums.get(file.getKey());
+            if (checksum != null) {
+                fileReferences.put(file.getKey(), checksum);
+                entries.putIfAbsent("files/" + checksum, file.getValue());
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Get the options that define the content of the archive
+     *
+     * @return the options or null, if the archive depends on previous exports and cannot be cached
+     */
+    public String getCacheKey() {
+        if (deltaExport) {
+            return null;
+        }
+        return "ldapGroups=" + ldapGroups + ",userGroups=" + userGroups + ",user=" + user + ",includeInactiveUser=" + includeInactiveUser
+                + ",createNewPasswords=" + createNewPasswords + ",projectAssignments=" + projectAssignments + ",usergroupAssignments="
+                + usergroupAssignments + ",projects=" + projects + ",rulesets=" + rulesets + ",dockets=" + dockets + ",includeFiles=" + includeFiles
+                + ",compactInstitutions=" + compactInstitutions + ",deduplicateFiles=" + deduplicateFiles + ",format=" + exportFormat
+                + ",compressionLevel=" + compressionLevel + ",archiveIndex=" + archiveIndex + ",filter=" + (filter.isActive() ? filter.getKey() : "");
+    }
+
+    /**
+     * Get the checksum of the archive that would be created with the current data
+     *
+     * @return the checksum or null, if the archive cannot be cached
+     */
+    public String getCacheChecksum(ExportResultCache cache) throws IOException {
+        String key = getCacheKey();
+        if (key == null) {
+            return null;
+        }
+        return cache.getChecksum(key, loader, includeFiles && (rulesets || dockets));
+    }
+
+    /**
+     * Write the xml file in the selected format. If a buffer is configured, the data is created in a separate thread, so the database queries and
+     * the serialization run in parallel to the compression. The buffer limits the memory usage if the archive is written slower than the data is
+     * created, e.g. into a slow network connection.
+     */
+    private void writeXmlEntry(OutputStream os) throws IOException {
+        if (bufferMemory <= 0) {
+            try (OutputStream out = exportFormat.wrap(os)) {
+                writeInfrastructure(out);
+            }
+            return;
+        }
+        SpillBuffer buffer = new SpillBuffer(bufferMemory, bufferDisk, bufferFolder, metrics);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> producer = executor.submit(() -> {
+                OutputStream bufferOut = buffer.getOutputStream();
+                try {
+                    try (OutputStream out = exportFormat.wrap(bufferOut)) {
+                        writeInfrastructure(out);
+                    }
+                    bufferOut.close();
+                } catch (IOException | RuntimeException e) {
+                    buffer.fail(e);
+                    throw e;
+                }
+                return null;
+            });
+            try (InputStream in = buffer.getInputStream()) {
+                in.transferTo(os);
+            } catch (IOException e) {
+                if (e.getCause() instanceof CancellationException) {
+                    throw (CancellationException) e.getCause();
+                }
+                throw e;
+            }
+            waitFor(producer);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Load the checksums of the previous export. Entries of sections that are not part of this export are kept, so they are not reported as
+     * removed.
+     */
+    private void prepareDelta() throws IOException {
+        if (current != null) {
+            return;
+        }
+        baseline = InfrastructureManifest.load(deltaBaseline);
+        current = new InfrastructureManifest();
+        String[] sections = { "institutions", "ldaps", "rulesets", "dockets", "projects", "userGroups", "users" };
+        for (String section : sections) {
+            if (!isSectionExported(section)) {
+                current.copyEntries(baseline, section + ":");
+            }
+        }
+        if (!includeFiles || !rulesets) {
+            current.copyEntries(baseline, InfrastructureManifest.FILE_PREFIX + "rulesets/");
+        }
+        if (!includeFiles || !dockets) {
+            current.copyEntries(baseline, InfrastructureManifest.FILE_PREFIX + "dockets/");
+        }
+    }
+
+    private boolean isSectionExported(String section) {
+        switch (section) {
+            case "institutions":
+                return compactInstitutions && (projects || userGroups || user);
+            case "ldaps":
+                return ldapGroups;
+            case "rulesets":
+                return rulesets;
+            case "dockets":
+                return dockets;
+            case "projects":
+                return projects;
+            case "userGroups":
+                return userGroups;
+            case "users":
+                return user;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Get the checksums of the content of all regular files. Files that did not change since the last run are not read again.
+     *
+     * @return the checksums by the names of the files in the archive
+     */
+    private Map<String, String> getFileChecksums(Map<String, Path> files) throws IOException {
+        Map<String, String> checksums = new LinkedHashMap<>();
+        FileChecksumCache cache = new FileChecksumCache(checksumCacheFile);
+        ExportMetrics.Phase phase = metrics.getPhase("files: checksums");
+        try (ExportMetrics.Timer timer = phase.start()) {
+            for (Map.Entry<String, Path> file : files.entrySet()) {
+                if (Files.isRegularFile(file.getValue())) {
+                    checksums.put(file.getKey(), cache.getChecksum(file.getValue()));
+                    phase.addFile();
+                }
+            }
+        }
+        try {
+            cache.save();
+        } catch (IOException e) {
+            // the checksums are calculated again in the next run
+            log.error(e);
+        }
+        return checksums;
+    }
+
+    /**
+     * Return only the files whose content differs from the previous export
+     */
+    private Map<String, Path> getChangedFiles(Map<String, Path> files, Map<String, String> checksums) {
+        Map<String, Path> changedFiles = new LinkedHashMap<>();
+        for (Map.Entry<String, Path> file : files.entrySet()) {
+            String checksum = checksums.get(file.getKey());
+            if (checksum == null) {
+                // not a regular file
+                continue;
+            }
+            String key = InfrastructureManifest.FILE_PREFIX + file.getKey();
+            current.setChecksum(key, checksum);
+            if (!checksum.equals(baseline.getChecksum(key))) {
+                changedFiles.put(file.getKey(), file.getValue());
+            }
+        }
+        return changedFiles;
+    }
+
+    /**
+     * Write the selected infrastructure data into the given stream. Each entity is serialized as soon as it is created, so only a single entity is
+     * kept in memory at a time.
+     *
+     * @param os the stream to write into, it is not closed
+     */
+    public void writeInfrastructure(OutputStream os) throws IOException {
+        if (deltaExport) {
+            prepareDelta();
+        }
+        Format format = exportFormat.getXmlFormat();
+        MeasuringOutputStream counter = new MeasuringOutputStream(os, null);
+        StreamingXmlWriter writer = new StreamingXmlWriter(counter, format);
+        writer.startDocument();
+        writtenEntities.clear();
+        Element root = new Element("infrastructure", xmlns);
+        if (deltaExport) {
+            root.setAttribute("delta", "true");
+        }
+        writer.startElement(root);
+        List<Section> sections = getSections();
+        if (sectionThreads > 1 && sections.size() > 1) {
+            writeSectionsInParallel(writer, root, sections);
+        } else {
+            for (Section section : sections) {
+                writeSection(writer, counter, section);
+            }
+        }
+        if (fileReferences != null) {
+            writer.startElement(new Element("files", xmlns));
+            for (Map.Entry<String, String> reference : fileReferences.entrySet()) {
+                Element file = new Element("file", xmlns);
+                file.setAttribute("name", reference.getKey());
+                file.setAttribute("checksum", reference.getValue());
+                writer.writeElement(file);
+            }
+            writer.endElement();
+        }
+        if (deltaExport) {
+            writeRemovedEntries(writer);
+        }
+        writer.endDocument();
+    }
+
+    /**
+     * Get the selected sections in the order of the schema
+     */
+    private List<Section> getSections() {
+        List<Section> sections = new ArrayList<>();
+        if (compactInstitutions && (projects || userGroups || user)) {
+            sections.add(new Section("institutions", (writer, counter) -> writeElements(writer, counter, "institutions",
+                    load("institutions", loader::getAllInstitutions), Institution::getId, this::createDetailedInstitutionElement)));
+        }
+        if (ldapGroups) {
+            sections.add(new Section("ldaps", (writer, counter) -> writeElements(writer, counter, "ldaps", load("ldaps", loader::getLdaps),
+                    Ldap::getId, this::createLdapGroupElement)));
+        }
+        if (rulesets) {
+            sections.add(new Section("rulesets", (writer, counter) -> writeElements(writer, counter, "rulesets", load("rulesets",
+                    loader::getRulesets), Ruleset::getId, this::createRulesetElement)));
+        }
+        if (dockets) {
+            sections.add(new Section("dockets", (writer, counter) -> writeElements(writer, counter, "dockets", load("dockets",
+                    loader::getDockets), Docket::getId, this::createDocketElement)));
+        }
+        if (projects) {
+            sections.add(new Section("projects", (writer, counter) -> writeElements(writer, counter, "projects", load("projects",
+                    loader::getProjects), Project::getId, this::createProjectElement)));
+        }
+        if (userGroups) {
+            sections.add(new Section("userGroups", (writer, counter) -> writeElements(writer, counter, "userGroups", load("userGroups",
+                    loader::getUsergroups), Usergroup::getId, this::createUsergroupElement)));
+        }
+        if (user) {
+            sections.add(new Section("users", this::writeUsers));
+        }
+        return sections;
+    }
+
+    private void writeSection(StreamingXmlWriter writer, MeasuringOutputStream counter, Section section) throws IOException {
+        writer.startElement(new Element(section.name, xmlns));
+        writtenEntities.putIfAbsent(section.name, new AtomicLong());
+        section.content.write(writer, counter);
+        writer.endElement();
+    }
+
+    private void writeUsers(StreamingXmlWriter writer, MeasuringOutputStream counter) throws IOException {
+        // load the users page by page, each page is written before the next one is loaded
+        String filter = includeInactiveUser ? null : "IstAktiv = true";
+        int start = 0;
+        List<User> page;
+        do {
+            int first = start;
+            page = load("users", () -> loader.getUsers(filter, first, userPageSize));
+            writeElements(writer, counter, "users", page, User::getId, this::createUserElement);
+            start += userPageSize;
+        } while (page.size() == userPageSize);
+    }
+
+    /**
+     * Load and serialize the sections in separate threads. Each section is written into its own buffer, the buffers are copied into the document
+     * in the order of the schema. A section that is finished before the previous ones are copied waits in memory or in a temporary file.
+     */
+    private void writeSectionsInParallel(StreamingXmlWriter writer, Element root, List<Section> sections) throws IOException {
+        Format format = exportFormat.getXmlFormat();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(sectionThreads, sections.size()));
+        List<InputStream> fragments = new ArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (Section section : sections) {
+                SpillBuffer buffer = new SpillBuffer(bufferMemory > 0 ? bufferMemory : DEFAULT_BUFFER_MEMORY, bufferDisk, bufferFolder, metrics);
+                fragments.add(buffer.getInputStream());
+                futures.add(executor.submit(() -> {
+                    OutputStream bufferOut = buffer.getOutputStream();
+                    try {
+                        MeasuringOutputStream counter = new MeasuringOutputStream(bufferOut, null);
+                        StreamingXmlWriter fragmentWriter = new StreamingXmlWriter(counter, format);
+                        fragmentWriter.startFragment(root);
+                        writeSection(fragmentWriter, counter, section);
+                        fragmentWriter.endFragment();
+                        bufferOut.close();
+                    } catch (IOException | RuntimeException e) {
+                        buffer.fail(e);
+                        throw e;
+                    }
+                    return null;
+                }));
+            }
+            for (int i = 0; i < sections.size(); i++) {
+                try {
+                    writer.writeFragment(fragments.get(i));
+                } catch (IOException e) {
+                    if (e.getCause() instanceof CancellationException) {
+                        throw (CancellationException) e.getCause();
+                    }
+                    throw e;
+                }
+                waitFor(futures.get(i));
+            }
+        } finally {
+            // stop the remaining sections after an error
+            for (InputStream fragment : fragments) {
+                fragment.close();
+            }
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Wait until the task is finished and throw its exception, if any
+     */
+    private static <T> T waitFor(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export was interrupted");
+        }
+    }
+
+    /**
+     * List all entities and files of the previous export that do not exist anymore
+     */
+    private void writeRemovedEntries(StreamingXmlWriter writer) throws IOException {
+        ExportMetrics.Phase phase = metrics.getPhase("delta: removed");
+        writer.startElement(new Element("removed", xmlns));
+        for (String key : baseline.getKeys("")) {
+            if (current.getChecksum(key) != null) {
+                continue;
+            }
+            Element removed;
+            if (key.startsWith(InfrastructureManifest.FILE_PREFIX)) {
+                removed = new Element("file", xmlns);
+                removed.setAttribute("name", key.substring(InfrastructureManifest.FILE_PREFIX.length()));
+            } else {
+                removed = new Element("entity", xmlns);
+                removed.setAttribute("section", key.substring(0, key.indexOf(':')));
+                removed.setAttribute("id", key.substring(key.indexOf(':') + 1));
+            }
+            writer.writeElement(removed);
+            phase.addEntities(1);
+        }
+        writer.endElement();
+    }
+
+    /**
+     * Load the entities of a section and record the duration
+     */
+    private <T> List<T> load(String section, EntityLoader<T> entityLoader) throws IOException {
+        ExportMetrics.Phase phase = metrics.getPhase(section + ": load");
+        List<T> list;
+        try (ExportMetrics.Timer timer = phase.start()) {
+            list = entityLoader.load();
+        } catch (IOException | RuntimeException e) {
+            phase.addFailure();
+            throw e;
+        }
+        phase.addEntities(list.size());
+        return list;
+    }
+
+    /**
+     * Create and serialize the elements of a section. The time to create the elements and the time to write them are recorded separately.
+     */
+    private <T> void writeElements(StreamingXmlWriter writer, MeasuringOutputStream counter, String section, List<T> entities,
+            Function<T, Integer> idGetter, ElementFactory<T> factory) throws IOException {
+        ExportMetrics.Phase build = metrics.getPhase(section + ": build");
+        ExportMetrics.Phase write = metrics.getPhase(section + ": write");
+        long bytes = counter.getCount();
+        for (T entity : entities) {
+            long start = System.nanoTime();
+            Element element;
+            try {
+                element = factory.create(entity);
+            } catch (IOException | RuntimeException e) {
+                build.addFailure();
+                throw e;
+            }
+            long created = System.nanoTime();
+            build.addTime(created - start);
+            build.addEntities(1);
+            if (deltaExport && !isChanged(InfrastructureManifest.getKey(section, idGetter.apply(entity)), element)) {
+                progress.addEntity();
+                progress.checkCancelled();
+                continue;
+            }
+            created = System.nanoTime();
+            writer.writeElement(element);
+            write.addTime(System.nanoTime() - created);
+            write.addEntities(1);
+            writtenEntities.get(section).incrementAndGet();
+            progress.addEntity();
+            progress.checkCancelled();
+        }
+        // flush the buffered text to count the bytes of this section
+        long start = System.nanoTime();
+        writer.flush();
+        write.addTime(System.nanoTime() - start);
+        write.addBytes(counter.getCount() - bytes);
+    }
+
+    /**
+     * Calculate the checksum of the element and compare it with the previous export
+     *
+     * @return true if the entity is new or was changed
+     */
+    private boolean isChanged(String key, Element element) {
+        String checksum;
+        try (ExportMetrics.Timer timer = metrics.getPhase("delta: checksums").start()) {
+            checksum = TemplateManifest.createChecksum(checksumOutputter.outputString(element).getBytes(StandardCharsets.UTF_8));
+        }
+        current.setChecksum(key, checksum);
+        if (checksum.equals(baseline.getChecksum(key))) {
+            metrics.getPhase("delta: unchanged").addEntities(1);
+            return false;
+        }
+        metrics.getPhase("delta: changed").addEntities(1);
+        return true;
+    }
+
+    @FunctionalInterface
+    private interface SectionContent {
+        void write(StreamingXmlWriter writer, MeasuringOutputStream counter) throws IOException;
+    }
+
+    private static class Section {
+        private final String name;
+        private final SectionContent content;
+
+        private Section(String name, SectionContent content) {
+            this.name = name;
+            this.content = content;
+        }
+    }
+
+    @FunctionalInterface
+    private interface EntityLoader<T> {
+        List<T> load() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface ElementFactory<T> {
+        Element create(T entity) throws IOException;
+    }
+
+    Element createRulesetElement(Ruleset ruleset) {
+        Element rulesetElement = new Element("ruleset", xmlns);
+        XmlFormatter.setAttribute(rulesetElement, "id", ruleset.getId());
+        XmlFormatter.setAttribute(rulesetElement, "file", ruleset.getDatei());
+        XmlFormatter.setAttribute(rulesetElement, "name", ruleset.getTitel());
+        return rulesetElement;
+    }
+
+    Element createDocketElement(Docket docket) {
+        Element docketElement = new Element("docket", xmlns);
+        XmlFormatter.setAttribute(docketElement, "id", docket.getId());
+        XmlFormatter.setAttribute(docketElement, "file", docket.getFile());
+        XmlFormatter.setAttribute(docketElement, "name", docket.getName());
+        return docketElement;
+    }
+
+    Element createUsergroupElement(Usergroup ug) throws IOException {
+        Element userGroup = new Element("usergroup", xmlns);
+        XmlFormatter.setAttribute(userGroup, "id", ug.getId());
+        XmlFormatter.setAttribute(userGroup, "name", ug.getTitel());
+        XmlFormatter.setAttribute(userGroup, "accessLevel", ug.getBerechtigungAsString());
+        for (String role : ug.getUserRoles()) {
+            XmlFormatter.addElement(userGroup, "role", role);
+        }
+        if (usergroupAssignments) {
+            Element users = new Element("assignedUsers", xmlns);
+            userGroup.addContent(users);
+            for (User user : loader.getUsersForUsergroup(ug.getId())) {
+                Element userElement = new Element("user", xmlns);
+                users.addContent(userElement);
+                XmlFormatter.setAttribute(userElement, "id", user.getId());
+                XmlFormatter.setAttribute(userElement, "login", user.getLogin());
+                XmlFormatter.setAttribute(userElement, "name", user.getNachVorname());
+            }
+        }
+
+        userGroup.addContent(getInstitutionElement(loader.getInstitution(ug.getInstitutionId())));
+        return userGroup;
+    }
+
+    Element createUserElement(User user) throws IOException {
+        Element userElement = new Element("user", xmlns);
+        XmlFormatter.setAttribute(userElement, "id", user.getId());
+        XmlFormatter.setAttribute(userElement, "firstname", user.getVorname());
+        XmlFormatter.setAttribute(userElement, "lastname", user.getNachname());
+        XmlFormatter.setAttribute(userElement, "login", user.getLogin());
+        XmlFormatter.setAttribute(userElement, "ldaplogin", user.getLdaplogin());
+        XmlFormatter.setAttribute(userElement, "active", user.isActive());
+        XmlFormatter.setAttribute(userElement, "place", user.getStandort());
+        XmlFormatter.setAttribute(userElement, "tablesize", user.getTabellengroesse());
+        XmlFormatter.setAttribute(userElement, "sessionlength", user.getSessiontimeout());
+        XmlFormatter.setAttribute(userElement, "metadatalanguage", user.getMetadatenSprache());
+        XmlFormatter.setAttribute(userElement, "massdownload", user.isMitMassendownload());
+
+        XmlFormatter.setAttribute(userElement, "ldapgroup", user.getLdapGruppe() == null ? "" : user.getLdapGruppe().getTitel());
+
+        XmlFormatter.setAttribute(userElement, "css", user.getCss());
+        XmlFormatter.setAttribute(userElement, "email", user.getEmail());
+        XmlFormatter.setAttribute(userElement, "shortcut", user.getShortcutPrefix());
+        if (!createNewPasswords) {
+            XmlFormatter.setAttribute(userElement, "password", user.getEncryptedPassword());
+            XmlFormatter.setAttribute(userElement, "salt", user.getPasswordSalt());
+        } else {
+            XmlFormatter.setAttribute(userElement, "password", "");
+            XmlFormatter.setAttribute(userElement, "salt", "");
+        }
+        XmlFormatter.setAttribute(userElement, "displayDeactivatedProjects", user.isDisplayDeactivatedProjects());
+        XmlFormatter.setAttribute(userElement, "displayFinishedProcesses", user.isDisplayFinishedProcesses());
+        XmlFormatter.setAttribute(userElement, "displaySelectBoxes", user.isDisplaySelectBoxes());
+        XmlFormatter.setAttribute(userElement, "displayIdColumn", user.isDisplayIdColumn());
+        XmlFormatter.setAttribute(userElement, "displayBatchColumn", user.isDisplayBatchColumn());
+        XmlFormatter.setAttribute(userElement, "displayProcessDateColumn", user.isDisplayProcessDateColumn());
+        XmlFormatter.setAttribute(userElement, "displayLocksColumn", user.isDisplayLocksColumn());
+        XmlFormatter.setAttribute(userElement, "displaySwappingColumn", user.isDisplaySwappingColumn());
+        XmlFormatter.setAttribute(userElement, "displayModulesColumn", user.isDisplayModulesColumn());
+        XmlFormatter.setAttribute(userElement, "displayMetadataColumn", user.isDisplayMetadataColumn());
+        XmlFormatter.setAttribute(userElement, "displayThumbColumn", user.isDisplayThumbColumn());
+        XmlFormatter.setAttribute(userElement, "displayGridView", user.isDisplayGridView());
+
+        XmlFormatter.setAttribute(userElement, "displayAutomaticTasks", user.isDisplayAutomaticTasks());
+        XmlFormatter.setAttribute(userElement, "hideCorrectionTasks", user.isHideCorrectionTasks());
+        XmlFormatter.setAttribute(userElement, "displayOnlySelectedTasks", user.isDisplayOnlySelectedTasks());
+        XmlFormatter.setAttribute(userElement, "displayOnlyOpenTasks", user.isDisplayOnlyOpenTasks());
+        XmlFormatter.setAttribute(userElement, "displayOtherTasks", user.isDisplayOtherTasks());
+
+        XmlFormatter.setAttribute(userElement, "metsDisplayTitle", user.isMetsDisplayTitle());
+        XmlFormatter.setAttribute(userElement, "metsLinkImage", user.isMetsLinkImage());
+        XmlFormatter.setAttribute(userElement, "metsDisplayPageAssignments", user.isMetsDisplayPageAssignments());
+        XmlFormatter.setAttribute(userElement, "metsDisplayHierarchy", user.isMetsDisplayHierarchy());
+        XmlFormatter.setAttribute(userElement, "metsDisplayProcessID", user.isMetsDisplayProcessID());
+
+        XmlFormatter.setAttribute(userElement, "metsEditorTime", user.getMetsEditorTime());
+
+        XmlFormatter.setAttribute(userElement, "customColumns", user.getCustomColumns());
+        XmlFormatter.setAttribute(userElement, "customCss", user.getCustomCss());
+
+        if (projectAssignments) {
+            Element assignedProjects = new Element("assignedProjects", xmlns);
+            userElement.addContent(assignedProjects);
+            for (Project project : loader.getProjectsForUser(user.getId())) {
+                Element projectElement = new Element("project", xmlns);
+                assignedProjects.addContent(projectElement);
+                XmlFormatter.setAttribute(projectElement, "id", project.getId());
+                XmlFormatter.setAttribute(projectElement, "title", project.getTitel());
+            }
+        }
+
+        userElement.addContent(getInstitutionElement(loader.getInstitution(user.getInstitutionId())));
+
+        return userElement;
+    }
+
+    Element createLdapGroupElement(Ldap ldap) {
+        Element ldapElement = new Element("ldap", xmlns);
+
+        XmlFormatter.setAttribute(ldapElement, "id", ldap.getId());
+        XmlFormatter.setAttribute(ldapElement, "title", ldap.getTitel());
+        XmlFormatter.setAttribute(ldapElement, "homeDirectory", ldap.getHomeDirectory());
+        XmlFormatter.setAttribute(ldapElement, "gidNumber", ldap.getGidNumber());
+        XmlFormatter.setAttribute(ldapElement, "dn", ldap.getUserDN());
+        XmlFormatter.setAttribute(ldapElement, "objectClass", ldap.getObjectClasses());
+        XmlFormatter.setAttribute(ldapElement, "sambaSID", ldap.getSambaSID());
+        XmlFormatter.setAttribute(ldapElement, "sn", ldap.getSn());
+        XmlFormatter.setAttribute(ldapElement, "uid", ldap.getUid());
+        XmlFormatter.setAttribute(ldapElement, "description", ldap.getDescription());
+        XmlFormatter.setAttribute(ldapElement, "displayName", ldap.getDisplayName());
+        XmlFormatter.setAttribute(ldapElement, "gecos", ldap.getGecos());
+        XmlFormatter.setAttribute(ldapElement, "loginShell", ldap.getLoginShell());
+        XmlFormatter.setAttribute(ldapElement, "sambaAcctFlags", ldap.getSambaAcctFlags());
+        XmlFormatter.setAttribute(ldapElement, "sambaLogonScript", ldap.getSambaLogonScript());
+        XmlFormatter.setAttribute(ldapElement, "sambaPrimaryGroupSID", ldap.getSambaPrimaryGroupSID());
+        XmlFormatter.setAttribute(ldapElement, "sambaPwdMustChange", ldap.getSambaPwdMustChange());
+        XmlFormatter.setAttribute(ldapElement, "sambaPasswordHistory", ldap.getSambaPasswordHistory());
+        XmlFormatter.setAttribute(ldapElement, "sambaLogonHours", ldap.getSambaLogonHours());
+        XmlFormatter.setAttribute(ldapElement, "sambaKickoffTime", ldap.getSambaKickoffTime());
+        return ldapElement;
+    }
+
+    Element createProjectElement(Project project) throws IOException {
+        Element projectElement = new Element("project", xmlns);
+
+        // projekte.ProjekteID
+        XmlFormatter.addElement(projectElement, "id", project.getId());
+
+        // projekte.Titel
+        XmlFormatter.addElement(projectElement, "title", project.getTitel());
+
+        // projekte.fileFormatInternal
+        XmlFormatter.addElement(projectElement, "fileFormatInternal", project.getFileFormatInternal());
+
+        // projekte.fileFormatDmsExport
+        XmlFormatter.addElement(projectElement, "fileFormatDmsExport", project.getFileFormatDmsExport());
+
+        // projekte.startDate
+        XmlFormatter.addElement(projectElement, "startDate", XmlFormatter.formatDate(project.getStartDate()));
+
+        // projekte.endDate
+        XmlFormatter.addElement(projectElement, "endDate", XmlFormatter.formatDate(project.getEndDate()));
+
+        //  projekte.numberOfPages
+        XmlFormatter.addElement(projectElement, "pages", project.getNumberOfPages());
+
+        // projekte.numberOfPages
+        XmlFormatter.addElement(projectElement, "volumes", project.getNumberOfVolumes());
+
+        // projekte.projectIsArchived
+        XmlFormatter.setAttribute(projectElement, "archived", project.getProjectIsArchived());
+
+        // export configuration
+        Element exportConfiguration = new Element("exportConfiguration", xmlns);
+
+        // column projekte.useDmsImport
+        XmlFormatter.setAttribute(exportConfiguration, "useDmsImport", project.isUseDmsImport());
+
+        // projekte.dmsImportTimeOut
+        XmlFormatter.addElement(exportConfiguration, "dmsImportTimeOut", project.getDmsImportTimeOut());
+
+        // projekte.dmsImportRootPath
+        XmlFormatter.addElementOrEmpty(exportConfiguration, "dmsImportRootPath", project.getDmsImportRootPath());
+
+        // projekte.dmsImportImagesPath
+        XmlFormatter.addElementOrEmpty(exportConfiguration, "dmsImportImagesPath", project.getDmsImportImagesPath());
+
+        // projekte.dmsImportSuccessPath
+        XmlFormatter.addElementOrEmpty(exportConfiguration, "dmsImportSuccessPath", project.getDmsImportSuccessPath());
+
+        // projekte.dmsImportErrorPath
+        XmlFormatter.addElementOrEmpty(exportConfiguration, "dmsImportErrorPath", project.getDmsImportErrorPath());
+
+        // projekte.dmsImportCreateProcessFolder
+        XmlFormatter.setAttribute(exportConfiguration, "dmsImportCreateProcessFolder", project.isDmsImportCreateProcessFolder());
+
+        projectElement.addContent(exportConfiguration);
+
+        // mets configuration
+        Element metsConfiguration = new Element("metsConfiguration", xmlns);
+
+        // projekte.metsRightsOwner
+        XmlFormatter.addElementOrEmpty(metsConfiguration, "metsRightsOwner", project.getMetsRightsOwner());
+
+        // projekte.metsRightsOwnerLogo
+        XmlFormatter.addElementOrEmpty(metsConfiguration, "metsRightsOwnerLogo", project.getMetsRightsOwnerLogo());
+
+        // projekte.metsRightsOwnerSite
+        XmlFormatter.addElementOrEmpty(metsConfiguration, "metsRightsOwnerSite", project.getMetsRightsOwnerSite());
+
+        // projekte.metsRightsOwnerMail
+        XmlFormatter.addElementOrEmpty(metsConfiguration, "metsRightsOwnerMail", project.getMetsRightsOwnerMail());
+
+        // projekte.metsDigiprovReference
+        XmlFormatter.addElementOrEmpty(metsConfiguration, "metsDigiprovReference", project.getMetsDigiprovReference());
+
+        // projekte.metsDigiprovPresentation
+        XmlFormatter.addElementOrEmpty(metsConfiguration, "metsDigiprovPresentation", project.getMetsDigiprovPresentation());
+
+        // projekte.metsDigiprovReferenceAnchor
+        XmlFormatter.addElementOrEmpty(metsConfiguration, "metsDigiprovReferenceAnchor", project.getMetsDigiprovReferenceAnchor());
+
+        // projekte.metsDigiprovPresentationAnchor
+        XmlFormatter.addElementOrEmpty(metsConfiguration, "metsDigiprovPresentationAnchor", project.getMetsDigiprovPresentationAnchor());
+
+        // projekte.metsPointerPath
+        XmlFormatter.addElementOrEmpty(metsConfiguration, "metsPointerPath", project.getMetsPointerPath());
+
+        // projekte.metsPointerPathAnchor
+        XmlFormatter.addElementOrEmpty(metsConfiguration, "metsPointerPathAnchor", project.getMetsPointerPathAnchor());
+
+        // projekte.metsPurl
+        XmlFormatter.addElementOrEmpty(metsConfiguration, "metsPurl", project.getMetsPurl());
+
+        // projekte.metsContentIDs
+        XmlFormatter.addElementOrEmpty(metsConfiguration, "metsContentIDs", project.getMetsContentIDs());
+
+        // projekte.metsRightsSponsor
+        XmlFormatter.addElementOrEmpty(metsConfiguration, "metsRightsSponsor", project.getMetsRightsSponsor());
+
+        // projekte.metsRightsSponsorLogo
+        XmlFormatter.addElementOrEmpty(metsConfiguration, "metsRightsSponsorLogo", project.getMetsRightsSponsorLogo());
+
+        // projekte.metsRightsSponsorSiteURL
+        XmlFormatter.addElementOrEmpty(metsConfiguration, "metsRightsSponsorSiteURL", project.getMetsRightsSponsorSiteURL());
+
+        // projekte.metsRightsLicense
+        XmlFormatter.addElementOrEmpty(metsConfiguration, "metsRightsLicense", project.getMetsRightsLicense());
+        projectElement.addContent(metsConfiguration);
+
+        //   filegroups
+
+        List<ProjectFileGroup> filegroups = loader.getFilegroupsForProject(project.getId());
+        if (!filegroups.isEmpty()) {
+            Element fileGroups = new Element("fileGroups", xmlns);
+            projectElement.addContent(fileGroups);
+            for (ProjectFileGroup filegroup : filegroups) {
+                Element projectFileGroup = new Element("projectFileGroup", xmlns);
+                // projectfilegroups.ProjectFileGroupID
+                XmlFormatter.setAttribute(projectFileGroup, "id", filegroup.getId());
+                // projectfilegroups.folder
+                XmlFormatter.setAttributeOrEmpty(projectFileGroup, "folder", filegroup.getFolder());
+                // projectfilegroups.mimetype
+                XmlFormatter.setAttributeOrEmpty(projectFileGroup, "mimetype", filegroup.getMimetype());
+                // projectfilegroups.name
+                XmlFormatter.setAttributeOrEmpty(projectFileGroup, "name", filegroup.getName());
+                // projectfilegroups.path
+                XmlFormatter.setAttributeOrEmpty(projectFileGroup, "path", filegroup.getPath());
+                // projectfilegroups.suffix
+                XmlFormatter.setAttributeOrEmpty(projectFileGroup, "suffix", filegroup.getSuffix());
+
+                fileGroups.addContent(projectFileGroup);
+            }
+        }
+        projectElement.addContent(getDetailedInstitutionElement(loader.getInstitution(project.getInstitutionId())));
+
+        return projectElement;
+    }
+
+    /**
+     * Get the institution element used inside of users and user groups. The element is created once per institution and copied afterwards. In
+     * compact mode only a reference to the institutions section is returned.
+     */
+    private Element getInstitutionElement(Institution inst) {
+        if (compactInstitutions) {
+            return createInstitutionReference(inst);
+        }
+        return institutionElements.computeIfAbsent(inst.getId(), id -> createInstitutionElement(inst)).clone();
+    }
+
+    /**
+     * Get the institution element used inside of projects, including the allowed authentications, dockets, plugins and rulesets. In compact mode
+     * only a reference to the institutions section is returned.
+     */
+    private Element getDetailedInstitutionElement(Institution inst) {
+        if (compactInstitutions) {
+            return createInstitutionReference(inst);
+        }
+        return detailedInstitutionElements.computeIfAbsent(inst.getId(), id -> createDetailedInstitutionElement(inst)).clone();
+    }
+
+    private Element createInstitutionReference(Institution inst) {
+        Element institutionElement = new Element("institution", xmlns);
+        institutionElement.setAttribute("id", String.valueOf(inst.getId()));
+        return institutionElement;
+    }
+
+    private Element createInstitutionElement(Institution inst) {
+        Element institutionElement = new Element("institution", xmlns);
+        institutionElement.setAttribute("id", String.valueOf(inst.getId()));
+        institutionElement.setAttribute("shortName", inst.getShortName());
+        institutionElement.setAttribute("longName", inst.getLongName());
+        return institutionElement;
+    }
+
+    private Element createDetailedInstitutionElement(Institution inst) {
+        Element institutionElement = createInstitutionElement(inst);
+        if (inst.isAllowAllAuthentications()) {
+            institutionElement.setAttribute("allowAllAuthentications", "true");
+        } else {
+            institutionElement.setAttribute("allowAllAuthentications", "false");
+            for (InstitutionConfigurationObject ico : inst.getAllowedAuthentications()) {
+                Element type = new Element("authentication", xmlns);
+                type.setText(ico.getObject_name());
+                institutionElement.addContent(type);
+            }
+        }
+
+        if (inst.isAllowAllDockets()) {
+            institutionElement.setAttribute("allowAllDockets", "true");
+        } else {
+            institutionElement.setAttribute("allowAllDockets", "false");
+            for (InstitutionConfigurationObject ico : inst.getAllowedDockets()) {
+                Element type = new Element("docket", xmlns);
+                type.setText(ico.getObject_name());
+                institutionElement.addContent(type);
+            }
+        }
+        //inst.isAllowAllPlugins()
+        if (inst.isAllowAllPlugins()) {
+            institutionElement.setAttribute("allowAllPlugins", "true");
+        } else {
+            institutionElement.setAttribute("allowAllPlugins", "false");
+            for (InstitutionConfigurationObject ico : inst.getAllowedAdministrationPlugins()) {
+                Element type = new Element("administrationPlugin", xmlns);
+                type.setText(ico.getObject_name());
+                institutionElement.addContent(type);
+            }
+            for (InstitutionConfigurationObject ico : inst.getAllowedWorkflowPlugins()) {
+                Element type = new Element("workflowPlugin", xmlns);
+                type.setText(ico.getObject_name());
+                institutionElement.addContent(type);
+            }
+            for (InstitutionConfigurationObject ico : inst.getAllowedDashboardPlugins()) {
+                Element type = new Element("dashboardPlugin", xmlns);
+                type.setText(ico.getObject_name());
+                institutionElement.addContent(type);
+            }
+            for (InstitutionConfigurationObject ico : inst.getAllowedStatisticsPlugins()) {
+                Element type = new Element("statisticsPlugin", xmlns);
+                type.setText(ico.getObject_name());
+                institutionElement.addContent(type);
+            }
+
+        }
+        if (inst.isAllowAllRulesets()) {
+            institutionElement.setAttribute("allowAllRulesets", "true");
+        } else {
+            institutionElement.setAttribute("allowAllRulesets", "false");
+            for (InstitutionConfigurationObject ico : inst.getAllowedRulesets()) {
+                Element type = new Element("ruleset", xmlns);
+                type.setText(ico.getObject_name());
+                institutionElement.addContent(type);
+            }
+        }
+
+        return institutionElement;
+    }
+}
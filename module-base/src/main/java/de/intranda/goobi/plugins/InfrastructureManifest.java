@@ -0,0 +1,120 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Stores a checksum for each exported entity and file of an infrastructure export. It is used to find the entities that were added, changed or
+ * removed since a previous export.
+ *
+ * The keys consist of the section and the id of the entity, e.g. <code>users:12</code>, or of the prefix <code>file:</code> and the name of the
+ * file inside of the archive.
+ */
+public class InfrastructureManifest {
+
+    // name of the manifest inside of the export archive
+    public static final String ENTRY_NAME = "goobi-to-goobi-manifest.properties";
+
+    public static final String FILE_PREFIX = "file:";
+
+    // sorted, so removed entities are reported in a stable order
+    private final Map<String, String> checksums = new TreeMap<>();
+
+    /**
+     * Read a manifest from a properties file or from the manifest entry of a previous export archive. If the file does not exist, an empty manifest
+     * is returned.
+     *
+     * @param file properties file or zip file
+     * @return the manifest
+     */
+    public static InfrastructureManifest load(Path file) throws IOException {
+        InfrastructureManifest manifest = new InfrastructureManifest();
+        if (!Files.exists(file)) {
+            return manifest;
+        }
+        Properties properties = new Properties();
+        if (file.getFileName().toString().endsWith(".zip")) {
+            try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(file))) {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    if (ENTRY_NAME.equals(entry.getName())) {
+                        properties.load(zip);
+                        break;
+                    }
+                }
+            }
+        } else {
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            }
+        }
+        for (String key : properties.stringPropertyNames()) {
+            manifest.checksums.put(key, properties.getProperty(key));
+        }
+        return manifest;
+    }
+
+    public static String getKey(String section, Integer id) {
+        return section + ":" + id;
+    }
+
+    public synchronized String getChecksum(String key) {
+        return checksums.get(key);
+    }
+
+    public synchronized void setChecksum(String key, String checksum) {
+        checksums.put(key, checksum);
+    }
+
+    public synchronized boolean isEmpty() {
+        return checksums.isEmpty();
+    }
+
+    /**
+     * Get all keys that start with the given prefix, e.g. <code>users:</code>
+     */
+    public synchronized List<String> getKeys(String prefix) {
+        List<String> keys = new ArrayList<>();
+        for (String key : checksums.keySet()) {
+            if (key.startsWith(prefix)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Copy all entries with the given prefix from another manifest, used for sections that are not part of the current export
+     */
+    public synchronized void copyEntries(InfrastructureManifest other, String prefix) {
+        for (String key : other.getKeys(prefix)) {
+            checksums.put(key, other.getChecksum(key));
+        }
+    }
+
+    /**
+     * Write the manifest into the given stream, the stream is not closed
+     */
+    public synchronized void store(OutputStream out) throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(checksums);
+        properties.store(out, "checksums of the exported infrastructure");
+    }
+
+    /**
+     * Write the manifest into a file
+     */
+    public void save(Path file) throws IOException {
+        StateFiles.write(file, this::store);
+    }
+}
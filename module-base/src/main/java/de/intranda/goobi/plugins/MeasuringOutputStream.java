@@ -0,0 +1,59 @@
+package de.intranda.goobi.plugins;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written into the target stream. If a phase is given, the bytes and the time spent in the target stream are added to it.
+ */
+class MeasuringOutputStream extends FilterOutputStream {
+
+    private final ExportMetrics.Phase phase;
+    private long count = 0;
+
+    /**
+     * @param out the target stream
+     * @param phase the phase to add the bytes and the duration to, can be null
+     */
+    MeasuringOutputStream(OutputStream out, ExportMetrics.Phase phase) {
+        super(out);
+        this.phase = phase;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long start = System.nanoTime();
+        out.write(b);
+        record(1, start);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        out.write(b, off, len);
+        record(len, start);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long start = System.nanoTime();
+        out.flush();
+        record(0, start);
+    }
+
+    private void record(int bytes, long start) {
+        count += bytes;
+        if (phase != null) {
+            phase.addTime(System.nanoTime() - start);
+            phase.addBytes(bytes);
+        }
+    }
+
+    /**
+     * Get the number of bytes written through this stream
+     */
+    long getCount() {
+        return count;
+    }
+}
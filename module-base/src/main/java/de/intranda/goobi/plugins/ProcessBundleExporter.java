@@ -0,0 +1,306 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+import org.apache.commons.lang.StringUtils;
+import org.goobi.beans.Process;
+import org.goobi.production.flow.statistics.hibernate.FilterHelper;
+import org.jdom2.Document;
+import org.jdom2.output.XMLOutputter;
+
+import de.sub.goobi.helper.StorageProvider;
+import de.sub.goobi.persistence.managers.ProcessManager;
+import io.goobi.workflow.xslt.XsltPreparatorMetadata;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Exports complete processes to move them into another Goobi instance. Each process is stored in its own folder of the archive, containing the
+ * database information and all files of the process folder, e.g. the meta.xml file and the images.
+ *
+ * The process folders are listed by several threads, the files are read and compressed by the compression threads of the archive. The archive
+ * is written in the order of the processes. The read rate limit is shared by all threads. If the archive gets larger than the configured size, a
+ * new volume is started. A process is never split between two volumes. The read rate can be limited during working hours.
+ */
+@Log4j
+public class ProcessBundleExporter {
+
+    private static final String FILE_PREFIX = "goobi-to-goobi-processes_";
+
+    private final ExportProgress progress;
+    private final ExportMetrics metrics;
+    private final String filter;
+    private final Path targetFolder;
+    private final int threads;
+    private final int compressionThreads;
+    private final long maxVolumeSize;
+    private final int compressionLevel;
+    private final ExportFormat format;
+    private final ExportThrottle throttle;
+
+    /**
+     * @param config the plugin configuration, the settings are read from the <code>processExport</code> element
+     * @param filter filter to select the processes, the same syntax as in the process list
+     * @param format format of the generated xml files
+     * @param progress progress of the current export
+     */
+    public ProcessBundleExporter(XMLConfiguration config, String filter, ExportFormat format, ExportProgress progress) {
+        this.filter = filter;
+        this.format = format;
+        this.progress = progress;
+        metrics = progress.getMetrics();
+        String folder = config.getString("processExport.targetFolder", null);
+        targetFolder = StringUtils.isBlank(folder) ? null : Paths.get(folder);
+        threads = Math.max(1, config.getInt("processExport.threads", 4));
+        compressionThreads = Math.max(1, config.getInt("processExport.compressionThreads", 4));
+        // size in MB, 0 writes a single archive
+        long maxSize = config.getLong("processExport.maxVolumeSize", 0);
+        maxVolumeSize = maxSize > 0 ? maxSize * 1024 * 1024 : Long.MAX_VALUE;
+        compressionLevel = Math.max(Deflater.DEFAULT_COMPRESSION, Math.min(Deflater.BEST_COMPRESSION, config.getInt("processExport.compressionLevel",
+                Deflater.NO_COMPRESSION)));
+        String start = config.getString("processExport.throttle.start", null);
+        String end = config.getString("processExport.throttle.end", null);
+        throttle = new ExportThrottle(config.getLong("processExport.throttle.megabytesPerSecond", 0) * 1024 * 1024,
+                StringUtils.isBlank(start) ? null : LocalTime.parse(start), StringUtils.isBlank(end) ? null : LocalTime.parse(end));
+    }
+
+    /**
+     * Export all processes matching the filter
+     *
+     * @return the written archive volumes
+     */
+    public List<Path> run() throws IOException {
+        if (targetFolder == null) {
+            throw new IOException("No target folder configured for the process export");
+        }
+        if (StringUtils.isBlank(filter)) {
+            throw new IOException("No filter given to select the processes");
+        }
+        ExportMetrics.Phase loadPhase = metrics.getPhase("processes: load");
+        List<Integer> ids;
+        try (ExportMetrics.Timer timer = loadPhase.start()) {
+            String sql = FilterHelper.criteriaBuilder(filter, false, null, null, null, true, false);
+            ids = ProcessManager.getIdsForFilter(sql);
+        }
+        loadPhase.addEntities(ids.size());
+
+        String basename = FILE_PREFIX + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (VolumeWriter volumes = new VolumeWriter(basename)) {
+            // the folders of the next processes are read while the current one is written
+            Deque<Future<ProcessBundle>> pending = new ArrayDeque<>();
+            int next = 0;
+            while (next < ids.size() || !pending.isEmpty()) {
+                while (next < ids.size() && pending.size() < threads * 2) {
+                    Integer id = ids.get(next++);
+                    pending.add(executor.submit(() -> readProcess(id)));
+                }
+                progress.checkCancelled();
+                ProcessBundle bundle = get(pending.poll());
+                if (bundle != null) {
+                    volumes.write(bundle);
+                }
+            }
+            volumes.finish();
+            progress.addMessage("Exported " + ids.size() + " processes into " + volumes.getVolumes().size() + " archives in " + targetFolder);
+            return volumes.getVolumes();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ProcessBundle get(Future<ProcessBundle> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CancellationException) {
+                throw (CancellationException) e.getCause();
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export was interrupted");
+        }
+    }
+
+    /**
+     * Create the database information and list all files of a process
+     *
+     * @return the process data or null, if the process does not exist anymore
+     */
+    private ProcessBundle readProcess(Integer id) throws IOException {
+        progress.checkCancelled();
+        Process process = ProcessManager.getProcessById(id);
+        if (process == null) {
+            return null;
+        }
+        ExportMetrics.Phase walkPhase = metrics.getPhase("processes: walk");
+        ProcessBundle bundle = new ProcessBundle(process.getId(), process.getTitel());
+        try (ExportMetrics.Timer timer = walkPhase.start()) {
+            Document doc = new XsltPreparatorMetadata().createDocument(process, true);
+            bundle.databaseExport = new XMLOutputter(format.getXmlFormat()).outputString(doc).getBytes(StandardCharsets.UTF_8);
+            Path folder = Paths.get(process.getProcessDataDirectoryIgnoreSwapping());
+            bundle.folder = folder.toString();
+            if (StorageProvider.getInstance().isFileExists(folder)) {
+                listFiles(folder, folder, bundle);
+            }
+        }
+        walkPhase.addEntities(1);
+        walkPhase.addFiles(bundle.files.size());
+        walkPhase.addBytes(bundle.size);
+        return bundle;
+    }
+
+    private void listFiles(Path root, Path folder, ProcessBundle bundle) throws IOException {
+        StorageProvider storage = StorageProvider.getInstance();
+        for (Path file : storage.listFiles(folder.toString())) {
+            if (storage.isDirectory(file)) {
+                listFiles(root, file, bundle);
+            } else {
+                long size = storage.getFileSize(file);
+                bundle.files.add(root.relativize(file));
+                bundle.fileSizes.add(size);
+                bundle.size += size;
+            }
+        }
+    }
+
+    /**
+     * Writes the processes into archives of the configured size
+     */
+    private class VolumeWriter implements AutoCloseable {
+
+        private final String basename;
+        private final List<Path> volumes = new ArrayList<>();
+        private final ExportMetrics.Phase writePhase = metrics.getPhase("processes: write");
+
+        private Path temporaryFile;
+        private MeasuringOutputStream file;
+        private ExportArchiveWriter archive;
+
+        private VolumeWriter(String basename) {
+            this.basename = basename;
+        }
+
+        private List<Path> getVolumes() {
+            return volumes;
+        }
+
+        private void write(ProcessBundle bundle) throws IOException {
+            long start = System.nanoTime();
+            if (archive != null) {
+                // the files of the last process may still be compressed
+                archive.flush();
+                if (file.getCount() > 0 && file.getCount() + bundle.size > maxVolumeSize) {
+                    closeVolume();
+                }
+            }
+            if (archive == null) {
+                openVolume();
+            }
+            try (ExportMetrics.Timer timer = writePhase.start()) {
+                String prefix = bundle.id + "/";
+                archive.addEntry(prefix + bundle.id + "_db_export.xml", os -> os.write(bundle.databaseExport));
+                StorageProvider storage = StorageProvider.getInstance();
+                Path root = Paths.get(bundle.folder);
+                for (int i = 0; i < bundle.files.size(); i++) {
+                    Path relative = bundle.files.get(i);
+                    archive.addFile(prefix + relative.toString().replace('\\', '/'), bundle.fileSizes.get(i),
+                            () -> throttle.wrap(storage.newInputStream(root.resolve(relative))));
+                }
+            }
+            writePhase.addEntities(1);
+            writePhase.addFiles(bundle.files.size());
+            writePhase.addBytes(bundle.size);
+            progress.addEntity();
+            metrics.addItem(bundle.title, System.nanoTime() - start, bundle.size, false);
+        }
+
+        private void openVolume() throws IOException {
+            Files.createDirectories(targetFolder);
+            temporaryFile = targetFolder.resolve(getVolumeName(volumes.size() + 1) + ".part");
+            file = new MeasuringOutputStream(Files.newOutputStream(temporaryFile), null);
+            archive = new ExportArchiveWriter(file, progress, compressionLevel, compressionThreads);
+        }
+
+        private void closeVolume() throws IOException {
+            archive.close();
+            file.close();
+            Path volume = targetFolder.resolve(getVolumeName(volumes.size() + 1));
+            Files.move(temporaryFile, volume, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            volumes.add(volume);
+            archive = null;
+            file = null;
+            temporaryFile = null;
+        }
+
+        private String getVolumeName(int number) {
+            return basename + String.format("_%03d", number) + ".zip";
+        }
+
+        /**
+         * Complete the last volume
+         */
+        private void finish() throws IOException {
+            if (archive != null) {
+                closeVolume();
+            }
+        }
+
+        /**
+         * Remove an incomplete volume
+         */
+        @Override
+        public void close() {
+            if (archive != null) {
+                archive.abort();
+                try {
+                    file.close();
+                    Files.deleteIfExists(temporaryFile);
+                } catch (IOException e) {
+                    log.error(e);
+                }
+            }
+        }
+    }
+
+    private static class ProcessBundle {
+        private final Integer id;
+        private final String title;
+        private String folder;
+        private byte[] databaseExport;
+        // paths relative to the process folder
+        private final List<Path> files = new ArrayList<>();
+        // size of each file
+        private final List<Long> fileSizes = new ArrayList<>();
+        // size of all files
+        private long size;
+
+        private ProcessBundle(Integer id, String title) {
+            this.id = id;
+            this.title = title;
+        }
+    }
+}
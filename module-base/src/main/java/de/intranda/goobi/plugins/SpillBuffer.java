@@ -0,0 +1,288 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Connects a producer and a consumer thread, e.g. the serialization of the xml file and the compression into the archive.
+ *
+ * The data is kept in memory up to a fixed limit. If the consumer is slower than the producer, further data is written into a temporary file. If
+ * the temporary file reaches its limit as well, the producer waits until the consumer has read some data. So the heap usage does not depend on the
+ * size of the export.
+ */
+public class SpillBuffer {
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final long memoryLimit;
+    private final long spillLimit;
+    private final Path tempFolder;
+    private final ExportMetrics.Phase spillPhase;
+    private final ExportMetrics.Phase waitPhase;
+
+    // data in the order it was written, either a chunk in memory or a range of the spill file
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long memoryBytes;
+    private long spilledBytes;
+
+    private Path spillFile;
+    private FileChannel spillChannel;
+    private long spillWritePosition;
+    private long spillReadPosition;
+
+    private boolean closed;
+    private boolean aborted;
+    private Throwable failure;
+
+    /**
+     * @param memoryLimit maximum number of bytes kept in memory
+     * @param spillLimit maximum number of bytes in the temporary file, 0 to never use a temporary file
+     * @param tempFolder folder for the temporary file
+     * @param metrics metrics of the current export
+     */
+    public SpillBuffer(long memoryLimit, long spillLimit, Path tempFolder, ExportMetrics metrics) {
+        this.memoryLimit = Math.max(CHUNK_SIZE, memoryLimit);
+        this.spillLimit = Math.max(0, spillLimit);
+        this.tempFolder = tempFolder;
+        spillPhase = metrics.getPhase("buffer: spill to disk");
+        waitPhase = metrics.getPhase("buffer: wait for consumer");
+    }
+
+    /**
+     * Get the stream for the producer. Closing it marks the end of the data.
+     */
+    public OutputStream getOutputStream() {
+        return new BufferOutputStream();
+    }
+
+    /**
+     * Get the stream for the consumer. Closing it before the end of the data stops the producer.
+     */
+    public InputStream getInputStream() {
+        return new BufferInputStream();
+    }
+
+    /**
+     * Report an error of the producer, the consumer gets it on the next read
+     */
+    public synchronized void fail(Throwable t) {
+        failure = t;
+        notifyAll();
+    }
+
+    private synchronized void put(byte[] chunk, int length) throws IOException {
+        long waitStart = System.nanoTime();
+        boolean waited = false;
+        while (!aborted && memoryBytes + length > memoryLimit && (spilledBytes + length > spillLimit)) {
+            // back-pressure, both memory and disk are full
+            waited = true;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the consumer");
+            }
+        }
+        if (waited) {
+            waitPhase.addTime(System.nanoTime() - waitStart);
+        }
+        if (aborted) {
+            throw new IOException("The consumer stopped reading");
+        }
+        if (memoryBytes + length <= memoryLimit) {
+            segments.add(new Segment(chunk, length));
+            memoryBytes += length;
+        } else {
+            long start = System.nanoTime();
+            if (spillChannel == null) {
+                spillFile = Files.createTempFile(tempFolder, "goobi2goobi-buffer", ".tmp");
+                spillChannel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(chunk, 0, length);
+            while (buffer.hasRemaining()) {
+                spillWritePosition += spillChannel.write(buffer, spillWritePosition);
+            }
+            segments.add(new Segment(null, length));
+            spilledBytes += length;
+            spillPhase.addTime(System.nanoTime() - start);
+            spillPhase.addBytes(length);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Get the next segment, waits until data is available
+     *
+     * @return the data or null at the end of the data
+     */
+    private synchronized byte[] take() throws IOException {
+        while (segments.isEmpty() && !closed && failure == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the producer");
+            }
+        }
+        if (failure != null) {
+            throw new IOException("The producer failed", failure);
+        }
+        Segment segment = segments.poll();
+        if (segment == null) {
+            return null;
+        }
+        byte[] data;
+        if (segment.data != null) {
+            data = segment.data.length == segment.length ? segment.data : Arrays.copyOf(segment.data, segment.length);
+            memoryBytes -= segment.length;
+        } else {
+            data = new byte[segment.length];
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                int count = spillChannel.read(buffer, spillReadPosition);
+                if (count < 0) {
+                    throw new IOException("Unexpected end of the spill file");
+                }
+                spillReadPosition += count;
+            }
+            spilledBytes -= segment.length;
+            if (spilledBytes == 0) {
+                // the file is empty again, reuse it from the beginning
+                spillChannel.truncate(0);
+                spillReadPosition = 0;
+                spillWritePosition = 0;
+            }
+        }
+        notifyAll();
+        return data;
+    }
+
+    private synchronized void finishWriting() {
+        closed = true;
+        notifyAll();
+    }
+
+    private synchronized void finishReading() throws IOException {
+        aborted = true;
+        segments.clear();
+        memoryBytes = 0;
+        spilledBytes = 0;
+        notifyAll();
+        if (spillChannel != null) {
+            spillChannel.close();
+            spillChannel = null;
+            Files.deleteIfExists(spillFile);
+        }
+    }
+
+    private static class Segment {
+        // null if the data was written into the spill file
+        private final byte[] data;
+        private final int length;
+
+        private Segment(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private class BufferOutputStream extends OutputStream {
+
+        private byte[] chunk = new byte[CHUNK_SIZE];
+        private int count;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == chunk.length) {
+                flushChunk();
+            }
+            chunk[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == chunk.length) {
+                    flushChunk();
+                }
+                int length = Math.min(len, chunk.length - count);
+                System.arraycopy(b, off, chunk, count, length);
+                count += length;
+                off += length;
+                len -= length;
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (count > 0) {
+                put(chunk, count);
+                chunk = new byte[CHUNK_SIZE];
+                count = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushChunk();
+            } finally {
+                finishWriting();
+            }
+        }
+    }
+
+    private class BufferInputStream extends InputStream {
+
+        private byte[] current;
+        private int position;
+        private boolean end;
+
+        private boolean fill() throws IOException {
+            while (!end && (current == null || position == current.length)) {
+                current = take();
+                position = 0;
+                if (current == null) {
+                    end = true;
+                }
+            }
+            return !end;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return current[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int length = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, length);
+            position += length;
+            return length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            finishReading();
+        }
+    }
+}
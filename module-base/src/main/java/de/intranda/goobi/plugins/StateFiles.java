@@ -0,0 +1,55 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes the manifests and caches that are kept between export runs.
+ *
+ * The content is written into a new temporary file next to the target and moved over the old file afterwards, so an interrupted run does not
+ * destroy the old state and readers never see a partial file. Runs that save the same file at the same time are serialized, by a lock inside of
+ * this java process and by a lock file for other processes, e.g. the headless export.
+ */
+final class StateFiles {
+
+    // the file lock belongs to the whole java process, it cannot be used to serialize the threads of this process
+    private static final Map<Path, Object> MONITORS = new ConcurrentHashMap<>();
+
+    private StateFiles() {
+    }
+
+    /**
+     * Replace the file with the written content
+     *
+     * @param file the file to write
+     * @param content writes the new content into the stream, the stream is closed afterwards
+     */
+    static void write(Path file, ExportArchiveWriter.EntryContent content) throws IOException {
+        Path target = file.toAbsolutePath().normalize();
+        Path folder = target.getParent();
+        Files.createDirectories(folder);
+        synchronized (MONITORS.computeIfAbsent(target, k -> new Object())) {
+            try (FileChannel channel = FileChannel.open(Paths.get(target + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    FileLock lock = channel.lock()) {
+                Path temporaryFile = Files.createTempFile(folder, target.getFileName().toString(), ".tmp");
+                try {
+                    try (OutputStream out = Files.newOutputStream(temporaryFile)) {
+                        content.write(out);
+                    }
+                    Files.move(temporaryFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temporaryFile);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.jdom2.Attribute;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.output.Format;
+import org.jdom2.output.support.AbstractXMLOutputProcessor;
+import org.jdom2.output.support.FormatStack;
+import org.jdom2.output.support.NamespaceStack;
+
+/**
+ * Writes an XML document piece by piece instead of building the complete JDOM tree first.
+ *
+ * The surrounding elements are opened and closed explicitly, the content is added as small JDOM fragments that are serialized immediately and can
+ * be discarded afterwards. The output is identical to what {@link org.jdom2.output.XMLOutputter} creates for the same document and format.
+ */
+public class StreamingXmlWriter extends AbstractXMLOutputProcessor {
+
+    private final OutputStream bytes;
+    private final Writer out;
+    private final Format format;
+    private final FormatStack fstack;
+    private final NamespaceStack nstack = new NamespaceStack();
+    private final Deque<OpenElement> openElements = new ArrayDeque<>();
+
+    public StreamingXmlWriter(OutputStream os, Format format) {
+        this.format = format;
+        this.bytes = new BufferedOutputStream(os);
+        this.out = new BufferedWriter(new OutputStreamWriter(bytes, Charset.forName(format.getEncoding())));
+        this.fstack = new FormatStack(format);
+    }
+
+    /**
+     * Write the xml declaration
+     */
+    public void startDocument() throws IOException {
+        printDeclaration(out, fstack);
+    }
+
+    /**
+     * Close all open elements and flush the written data. The underlying stream is not closed.
+     */
+    public void endDocument() throws IOException {
+        while (!openElements.isEmpty()) {
+            endElement();
+        }
+        if (format.getLineSeparator() != null) {
+            write(out, format.getLineSeparator());
+        }
+        out.flush();
+    }
+
+    /**
+     * Write all buffered data into the underlying stream
+     */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Open a new element. Only the name, namespace and attributes of the given element are written, the content must be added with
+     * {@link #writeElement(Element)} or further calls of this method.
+     *
+     * @param element the element to open
+     */
+    public void startElement(Element element) throws IOException {
+        beforeContent();
+        nstack.push(element);
+        write(out, "<");
+        write(out, element.getQualifiedName());
+        for (Namespace ns : nstack.addedForward()) {
+            printNamespace(out, fstack, ns);
+        }
+        if (element.hasAttributes()) {
+            for (Attribute attribute : element.getAttributes()) {
+                printAttribute(out, fstack, attribute);
+            }
+        }
+        fstack.push();
+        openElements.push(new OpenElement(element.getQualifiedName()));
+    }
+
+    /**
+     * Close the last opened element
+     */
+    public void endElement() throws IOException {
+        OpenElement element = openElements.pop();
+        fstack.pop();
+        if (element.hasContent) {
+            write(out, getPadding(openElements.size()));
+            write(out, "</");
+            write(out, element.name);
+            write(out, ">");
+        } else if (format.getExpandEmptyElements()) {
+            write(out, "></");
+            write(out, element.name);
+            write(out, ">");
+        } else {
+            write(out, " />");
+        }
+        nstack.pop();
+    }
+
+    /**
+     * Start a fragment that continues the document of another writer inside of the given element. The element itself is not written, the
+     * fragment contains only its content. Afterwards the fragment can be copied into the other writer with {@link #writeFragment(InputStream)}.
+     *
+     * @param parent the element that is open in the other writer
+     */
+    public void startFragment(Element parent) {
+        nstack.push(parent);
+        fstack.push();
+        OpenElement element = new OpenElement(parent.getQualifiedName());
+        // the other writer has already closed the start tag
+        element.hasContent = true;
+        openElements.push(element);
+    }
+
+    /**
+     * Finish a fragment started with {@link #startFragment(Element)} and flush the written data. The underlying stream is not closed.
+     */
+    public void endFragment() throws IOException {
+        while (openElements.size() > 1) {
+            endElement();
+        }
+        openElements.pop();
+        fstack.pop();
+        nstack.pop();
+        out.flush();
+    }
+
+    /**
+     * Copy a fragment created by another writer with the same format as content of the current element
+     *
+     * @param fragment the serialized fragment
+     */
+    public void writeFragment(InputStream fragment) throws IOException {
+        OpenElement parent = openElements.peek();
+        if (parent != null && !parent.hasContent) {
+            write(out, ">");
+            parent.hasContent = true;
+        }
+        out.flush();
+        fragment.transferTo(bytes);
+    }
+
+    /**
+     * Serialize a complete element including all of its children as content of the current element
+     *
+     * @param element the fragment to write
+     */
+    public void writeElement(Element element) throws IOException {
+        beforeContent();
+        printElement(out, fstack, nstack, element);
+    }
+
+    private void beforeContent() throws IOException {
+        OpenElement parent = openElements.peek();
+        if (parent != null) {
+            if (!parent.hasContent) {
+                write(out, ">");
+                parent.hasContent = true;
+            }
+            write(out, getPadding(openElements.size()));
+        }
+    }
+
+    private String getPadding(int depth) {
+        if (format.getIndent() == null || format.getLineSeparator() == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(format.getLineSeparator());
+        for (int i = 0; i < depth; i++) {
+            sb.append(format.getIndent());
+        }
+        return sb.toString();
+    }
+
+    private static class OpenElement {
+        private final String name;
+        private boolean hasContent = false;
+
+        private OpenElement(String name) {
+            this.name = name;
+        }
+    }
+}
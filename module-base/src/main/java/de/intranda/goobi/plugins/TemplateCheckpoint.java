@@ -0,0 +1,182 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Journal of the templates that were exported by the current run. Each finished template is appended to the journal immediately, so a run that
+ * was interrupted can be continued with the remaining templates. The journal is removed when a run finishes.
+ *
+ * The first line contains a key of the run settings. A journal written with other settings, e.g. another output format, is ignored.
+ *
+ * All runs use the same journal, so only one run can use it at a time. It is locked with a lock file next to the journal, which also works for
+ * runs in other class loaders or processes, e.g. the headless export.
+ */
+@Log4j
+public class TemplateCheckpoint {
+
+    private static final String HEADER_PREFIX = "# ";
+
+    private final Path file;
+    private final String key;
+    private final Set<Integer> completed = ConcurrentHashMap.newKeySet();
+    private BufferedWriter journal;
+    private FileChannel lockChannel;
+    private FileLock lock;
+
+    public TemplateCheckpoint(Path file, String key) {
+        this.file = file;
+        this.key = key;
+    }
+
+    /**
+     * Lock the journal and read the templates of an interrupted run
+     *
+     * @return false if the journal is used by another run
+     */
+    public synchronized boolean open() throws IOException {
+        if (lock != null) {
+            return true;
+        }
+        Files.createDirectories(file.getParent());
+        lockChannel = FileChannel.open(Paths.get(file + ".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // locked by another run in this java process
+            lock = null;
+        }
+        if (lock == null) {
+            releaseLock();
+            return false;
+        }
+        readJournal();
+        return true;
+    }
+
+    private void readJournal() {
+        completed.clear();
+        if (Files.exists(file)) {
+            List<String> lines;
+            try {
+                lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                // start from the beginning
+                log.error(e);
+                return;
+            }
+            if (lines.isEmpty() || !lines.get(0).equals(HEADER_PREFIX + key)) {
+                log.info("Ignoring the template checkpoint of a run with other settings: " + file);
+                return;
+            }
+            for (String line : lines.subList(1, lines.size())) {
+                try {
+                    completed.add(Integer.valueOf(line.trim()));
+                } catch (NumberFormatException e) {
+                    // the last line is incomplete if the run was stopped while writing it
+                    log.debug("Ignoring invalid checkpoint entry " + line);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the template was exported by an interrupted run
+     */
+    public boolean isCompleted(Integer templateId) {
+        return completed.contains(templateId);
+    }
+
+    /**
+     * @return the number of templates exported by an interrupted run
+     */
+    public int getCompletedCount() {
+        return completed.size();
+    }
+
+    /**
+     * Append the template to the journal
+     */
+    public synchronized void markCompleted(Integer templateId) throws IOException {
+        if (lock == null) {
+            throw new IllegalStateException("The template checkpoint was not opened");
+        }
+        if (journal == null) {
+            Files.createDirectories(file.getParent());
+            if (completed.isEmpty()) {
+                journal = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+                journal.write(HEADER_PREFIX + key);
+                journal.newLine();
+            } else {
+                // continue the journal of the interrupted run
+                journal = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+                journal.newLine();
+            }
+        }
+        completed.add(templateId);
+        journal.write(String.valueOf(templateId));
+        journal.newLine();
+        journal.flush();
+    }
+
+    /**
+     * Close the journal and keep it, the next run continues with the remaining templates
+     */
+    public synchronized void close() {
+        closeJournal();
+        releaseLock();
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.error(e);
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * Close and delete the journal after all templates were processed, the next run starts from the beginning
+     */
+    public synchronized void finish() {
+        closeJournal();
+        completed.clear();
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.error(e);
+        }
+        releaseLock();
+    }
+
+    private void releaseLock() {
+        try {
+            if (lock != null) {
+                lock.release();
+            }
+            if (lockChannel != null) {
+                lockChannel.close();
+            }
+        } catch (IOException e) {
+            log.error(e);
+        }
+        lock = null;
+        lockChannel = null;
+    }
+}
@@ -0,0 +1,449 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+import org.goobi.beans.Process;
+import org.goobi.production.flow.statistics.hibernate.FilterHelper;
+import org.jdom2.Document;
+import org.jdom2.output.XMLOutputter;
+
+import de.sub.goobi.persistence.managers.ProcessManager;
+import io.goobi.workflow.xslt.XsltPreparatorMetadata;
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Writes the database information of each process template into a file in the process folder.
+ *
+ * The templates can be processed in parallel. The results are collected and reported in the order of the templates, regardless of the order in
+ * which the files were written.
+ *
+ * If a manifest is used, a template is skipped before its document is created, if its database rows and metadata files did not change since the
+ * last run. Otherwise the document is created and only written if its content changed.
+ *
+ * Each file is written into a temporary file and renamed afterwards. If a checkpoint is used, an interrupted run can be continued with the
+ * templates that were not exported yet. The checkpoint also prevents a second template export from running at the same time.
+ */
+@Log4j
+public class TemplateExporter {
+
+    // tables read by XsltPreparatorMetadata that belong to a process, with the column of the process id. Depending on the Goobi version the
+    // properties are stored in the old or in the new tables.
+    private static final Map<String, String> PROCESS_TABLES = new LinkedHashMap<>();
+    // tables read by XsltPreparatorMetadata that are shared by all processes
+    private static final List<String> SHARED_TABLES = Arrays.asList("projekte", "institution", "batches", "dockets", "metadatenkonfigurationen",
+            "benutzer", "benutzergruppen");
+
+    static {
+        PROCESS_TABLES.put("prozesse", "ProzesseID");
+        PROCESS_TABLES.put("schritte", "ProzesseID");
+        PROCESS_TABLES.put("schritteberechtigtebenutzer b JOIN schritte s ON b.schritteID = s.SchritteID", "s.ProzesseID");
+        PROCESS_TABLES.put("schritteberechtigtegruppen g JOIN schritte s ON g.schritteID = s.SchritteID", "s.ProzesseID");
+        PROCESS_TABLES.put("metadata", "processid");
+        PROCESS_TABLES.put("journal", "objectID");
+        PROCESS_TABLES.put("properties", "object_id");
+        PROCESS_TABLES.put("prozesseeigenschaften", "prozesseID");
+        PROCESS_TABLES.put("vorlagen", "ProzesseID");
+        PROCESS_TABLES.put("vorlageneigenschaften e JOIN vorlagen v ON e.vorlagenID = v.VorlagenID", "v.ProzesseID");
+        PROCESS_TABLES.put("werkstuecke", "ProzesseID");
+        PROCESS_TABLES.put("werkstueckeeigenschaften e JOIN werkstuecke w ON e.werkstueckeID = w.WerkstueckeID", "w.ProzesseID");
+    }
+
+    private static final String[] METADATA_FILES = { "meta.xml", "meta_anchor.xml" };
+
+    private enum TemplateStatus {
+        WRITTEN,
+        UNCHANGED,
+        FAILED
+    }
+
+    private final ExportProgress progress;
+    private final int threads;
+    // if a manifest is set, only changed export files are written
+    private final TemplateManifest manifest;
+    private final ExportMetrics metrics;
+    private final ExportFormat format;
+    // if a checkpoint is set, the templates exported by an interrupted run are skipped
+    private final TemplateCheckpoint checkpoint;
+    // state of the database rows of each template at the start of the run, null if it is unknown
+    private Map<Integer, String> databaseStates;
+
+    public TemplateExporter(ExportProgress progress, int threads, TemplateManifest manifest) {
+        this(progress, threads, manifest, ExportFormat.PRETTY);
+    }
+
+    public TemplateExporter(ExportProgress progress, int threads, TemplateManifest manifest, ExportFormat format) {
+        this(progress, threads, manifest, format, null);
+    }
+
+    public TemplateExporter(ExportProgress progress, int threads, TemplateManifest manifest, ExportFormat format, TemplateCheckpoint checkpoint) {
+        this.progress = progress;
+        this.format = format;
+        this.threads = Math.max(1, threads);
+        this.manifest = manifest;
+        this.checkpoint = checkpoint;
+        metrics = progress.getMetrics();
+    }
+
+    public void run() {
+        if (checkpoint != null) {
+            try {
+                if (!checkpoint.open()) {
+                    progress.addError("Another template export is running, the export was not started");
+                    return;
+                }
+            } catch (IOException e) {
+                log.error(e);
+                progress.addError("Cannot open the template checkpoint: " + e.getMessage());
+                return;
+            }
+        }
+        try {
+            exportTemplates();
+        } finally {
+            if (checkpoint != null) {
+                checkpoint.close();
+            }
+        }
+    }
+
+    private void exportTemplates() {
+        ExportMetrics.Phase loadPhase = metrics.getPhase("templates: load");
+        List<Process> templates;
+        try (ExportMetrics.Timer timer = loadPhase.start()) {
+            String sql = FilterHelper.criteriaBuilder("", true, null, null, null, true, false);
+            templates = ProcessManager.getProcesses(null, sql, null);
+        }
+        loadPhase.addEntities(templates.size());
+        if (manifest != null) {
+            try (ExportMetrics.Timer timer = loadPhase.start()) {
+                databaseStates = loadDatabaseStates(templates);
+            } catch (IOException e) {
+                // all documents are created and compared with the manifest
+                log.error(e);
+            }
+        }
+
+        int resumed = 0;
+        if (checkpoint != null && checkpoint.getCompletedCount() > 0) {
+            List<Process> remaining = new ArrayList<>(templates.size());
+            for (Process template : templates) {
+                if (!checkpoint.isCompleted(template.getId())) {
+                    remaining.add(template);
+                }
+            }
+            resumed = templates.size() - remaining.size();
+            templates = remaining;
+            progress.addMessage("Continuing the interrupted template export, " + resumed + " templates were already exported");
+        }
+
+        List<TemplateResult> results;
+        boolean finished = false;
+        try {
+            if (threads == 1) {
+                results = new ArrayList<>(templates.size());
+                for (Process template : templates) {
+                    results.add(exportTemplate(template));
+                }
+            } else {
+                results = runParallel(templates);
+            }
+            finished = true;
+        } finally {
+            saveManifest();
+            if (checkpoint != null) {
+                if (finished) {
+                    checkpoint.finish();
+                } else {
+                    checkpoint.close();
+                }
+            }
+        }
+
+        int written = 0;
+        int unchanged = 0;
+        int failed = 0;
+        for (TemplateResult result : results) {
+            switch (result.status) {
+                case WRITTEN:
+                    written++;
+                    progress.addMessage("Generated export file for " + result.title);
+                    break;
+                case UNCHANGED:
+                    unchanged++;
+                    break;
+                default:
+                    failed++;
+                    progress.addError("Cannot generate export file for " + result.title + ": " + result.error);
+                    break;
+            }
+        }
+        if (manifest != null || resumed > 0) {
+            progress.addMessage("Template export finished: " + written + " written, " + unchanged + " unchanged, " + failed + " failed"
+                    + (resumed > 0 ? ", " + resumed + " exported before the interruption" : ""));
+        }
+    }
+
+    private void saveManifest() {
+        if (manifest != null) {
+            try {
+                manifest.save();
+            } catch (IOException e) {
+                log.error(e);
+                progress.addError("Cannot save the template manifest: " + e.getMessage());
+            }
+        }
+    }
+
+    private List<TemplateResult> runParallel(List<Process> templates) {
+        // the queue is bounded, if it is full the current thread processes the template itself
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threads * 2),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            List<Future<TemplateResult>> futures = new ArrayList<>(templates.size());
+            for (Process template : templates) {
+                progress.checkCancelled();
+                futures.add(executor.submit(() -> exportTemplate(template)));
+            }
+
+            List<TemplateResult> results = new ArrayList<>(templates.size());
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof CancellationException) {
+                        throw (CancellationException) e.getCause();
+                    }
+                    log.error(e.getCause());
+                    results.add(new TemplateResult(templates.get(i).getTitel(), TemplateStatus.FAILED, String.valueOf(e.getCause().getMessage())));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("Export was interrupted");
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private TemplateResult exportTemplate(Process template) {
+        progress.checkCancelled();
+        long start = System.nanoTime();
+        TemplateResult result;
+        try {
+            result = writeTemplate(template);
+        } catch (CancellationException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // a broken template must not abort the export, in sequential mode as well as in parallel mode
+            log.error(e);
+            result = new TemplateResult(template.getTitel(), TemplateStatus.FAILED, String.valueOf(e.getMessage()));
+        }
+        metrics.addItem(template.getTitel(), System.nanoTime() - start, result.bytes, result.status == TemplateStatus.FAILED);
+        if (result.status == TemplateStatus.FAILED) {
+            metrics.getPhase("templates: write").addFailure();
+        } else if (checkpoint != null) {
+            // failed templates are not recorded, they are tried again when the run is continued
+            try {
+                checkpoint.markCompleted(template.getId());
+            } catch (IOException e) {
+                log.error(e);
+            }
+        }
+        return result;
+    }
+
+    private TemplateResult writeTemplate(Process template) {
+        Path folder;
+        try {
+            folder = Paths.get(template.getProcessDataDirectoryIgnoreSwapping());
+        } catch (IOException e) {
+            log.error(e);
+            return new TemplateResult(template.getTitel(), TemplateStatus.FAILED, e.getMessage());
+        }
+        Path dest = folder.resolve(format.getFileName(template.getId() + "_db_export"));
+
+        String inputState = null;
+        if (manifest != null && databaseStates != null) {
+            inputState = getInputState(template, folder);
+            // nothing the document is created from has changed, so it is not created at all
+            if (inputState.equals(manifest.getInputState(template.getId())) && manifest.getChecksum(template.getId()) != null
+                    && Files.exists(dest)) {
+                progress.addEntity();
+                return new TemplateResult(template.getTitel(), TemplateStatus.UNCHANGED, null);
+            }
+        }
+
+        ExportMetrics.Phase buildPhase = metrics.getPhase("templates: build");
+        Document doc;
+        try (ExportMetrics.Timer timer = buildPhase.start()) {
+            doc = new XsltPreparatorMetadata().createDocument(template, true);
+        }
+        buildPhase.addEntities(1);
+
+        ExportMetrics.Phase writePhase = metrics.getPhase("templates: write");
+        XMLOutputter outp = new XMLOutputter();
+        outp.setFormat(format.getXmlFormat());
+        if (manifest != null) {
+            // compare the new content with the last run and keep the existing file if nothing changed
+            byte[] content;
+            try (ExportMetrics.Timer timer = writePhase.start()) {
+                content = outp.outputString(doc).getBytes(StandardCharsets.UTF_8);
+            }
+            String checksum = TemplateManifest.createChecksum(content);
+            progress.addEntity();
+            if (checksum.equals(manifest.getChecksum(template.getId())) && Files.exists(dest)) {
+                setInputState(template, inputState);
+                return new TemplateResult(template.getTitel(), TemplateStatus.UNCHANGED, null);
+            }
+            long bytes;
+            try (ExportMetrics.Timer timer = writePhase.start()) {
+                bytes = writeFile(dest, os -> os.write(content));
+            } catch (IOException e) {
+                log.error(e);
+                return new TemplateResult(template.getTitel(), TemplateStatus.FAILED, e.getMessage());
+            }
+            manifest.setChecksum(template.getId(), checksum);
+            setInputState(template, inputState);
+            writePhase.addFile();
+            writePhase.addBytes(bytes);
+            progress.addFile();
+            progress.addBytes(bytes);
+            return new TemplateResult(template.getTitel(), TemplateStatus.WRITTEN, null, bytes);
+        }
+
+        long bytes;
+        try (ExportMetrics.Timer timer = writePhase.start()) {
+            bytes = writeFile(dest, os -> outp.output(doc, os));
+        } catch (IOException e) {
+            log.error(e);
+            return new TemplateResult(template.getTitel(), TemplateStatus.FAILED, e.getMessage());
+        }
+        writePhase.addFile();
+        writePhase.addBytes(bytes);
+        progress.addEntity();
+        progress.addFile();
+        progress.addBytes(bytes);
+        return new TemplateResult(template.getTitel(), TemplateStatus.WRITTEN, null, bytes);
+    }
+
+    /**
+     * Get the state of the database rows of each template. The rows of the templates are read from the tables of the processes, the shared
+     * tables are checked as a whole. A process table that cannot be read in this Goobi version is checked as a whole as well.
+     */
+    private Map<Integer, String> loadDatabaseStates(List<Process> templates) throws IOException {
+        ExportDataLoader loader = new ExportDataLoader();
+        List<Integer> ids = new ArrayList<>(templates.size());
+        for (Process template : templates) {
+            ids.add(template.getId());
+        }
+        List<String> sharedTables = new ArrayList<>(SHARED_TABLES);
+        Map<Integer, StringBuilder> rowStates = new HashMap<>();
+        for (Map.Entry<String, String> table : PROCESS_TABLES.entrySet()) {
+            Map<Integer, String> states;
+            try {
+                states = loader.getRowStates(table.getKey(), table.getValue(), ids);
+            } catch (IOException e) {
+                log.debug("Cannot read the rows of the templates from " + table.getKey(), e);
+                sharedTables.add(StringUtils.substringBefore(table.getKey(), " "));
+                continue;
+            }
+            for (Integer id : ids) {
+                rowStates.computeIfAbsent(id, k -> new StringBuilder()).append(states.getOrDefault(id, "-")).append('|');
+            }
+        }
+        String tableState = loader.getTableState(sharedTables);
+        Map<Integer, String> databaseStates = new HashMap<>();
+        for (Integer id : ids) {
+            databaseStates.put(id, tableState + "|" + rowStates.getOrDefault(id, new StringBuilder()));
+        }
+        return databaseStates;
+    }
+
+    /**
+     * Get the state of the inputs of a template export file: the database rows, the output format and the size and modification date of the
+     * metadata files
+     */
+    private String getInputState(Process template, Path folder) {
+        StringBuilder state = new StringBuilder(databaseStates.get(template.getId())).append('|').append(format.name());
+        for (String name : METADATA_FILES) {
+            state.append('|').append(name).append(':');
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(folder.resolve(name), BasicFileAttributes.class);
+                state.append(attributes.size()).append(':').append(attributes.lastModifiedTime().toMillis());
+            } catch (IOException e) {
+                // the file does not exist
+                state.append('-');
+            }
+        }
+        return TemplateManifest.createChecksum(state.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void setInputState(Process template, String inputState) {
+        if (inputState != null) {
+            manifest.setInputState(template.getId(), inputState);
+        }
+    }
+
+    /**
+     * Write a file in the selected format. The data is written into a temporary file first and moved afterwards, so an interrupted run never
+     * leaves an incomplete export file in the process folder.
+     *
+     * @return the size of the written file
+     */
+    private long writeFile(Path dest, ExportArchiveWriter.EntryContent content) throws IOException {
+        Path temporaryFile = dest.resolveSibling(dest.getFileName().toString() + ".tmp");
+        long bytes;
+        try (MeasuringOutputStream file = new MeasuringOutputStream(Files.newOutputStream(temporaryFile), null)) {
+            try (OutputStream os = format.wrap(file)) {
+                content.write(os);
+            }
+            bytes = file.getCount();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporaryFile);
+            throw e;
+        }
+        Files.move(temporaryFile, dest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return bytes;
+    }
+
+    private static class TemplateResult {
+        private final String title;
+        private final TemplateStatus status;
+        // only set if the export failed
+        private final String error;
+        // number of written bytes
+        private final long bytes;
+
+        private TemplateResult(String title, TemplateStatus status, String error) {
+            this(title, status, error, 0);
+        }
+
+        private TemplateResult(String title, TemplateStatus status, String error, long bytes) {
+            this.title = title;
+            this.status = status;
+            this.error = error;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.extern.log4j.Log4j;
+
+/**
+ * Stores the checksum of the last generated export file of each process template. It is used to skip templates whose export did not change since
+ * the last run.
+ *
+ * Together with the checksum the state of the inputs of the export file is stored, the database tables and the metadata files. If they did not
+ * change, the export file is not created again at all.
+ */
+@Log4j
+public class TemplateManifest {
+
+    private static final String INPUT_SUFFIX = ".inputs";
+
+    private final Path file;
+    // the checksums and the input states
+    private final Map<String, String> checksums = new ConcurrentHashMap<>();
+
+    public TemplateManifest(Path file) {
+        this.file = file;
+        if (Files.exists(file)) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            } catch (IOException e) {
+                // start with an empty manifest, all files get written again
+                log.error(e);
+            }
+            for (String id : properties.stringPropertyNames()) {
+                checksums.put(id, properties.getProperty(id));
+            }
+        }
+    }
+
+    public String getChecksum(Integer templateId) {
+        return checksums.get(String.valueOf(templateId));
+    }
+
+    public void setChecksum(Integer templateId, String checksum) {
+        checksums.put(String.valueOf(templateId), checksum);
+    }
+
+    public String getInputState(Integer templateId) {
+        return checksums.get(templateId + INPUT_SUFFIX);
+    }
+
+    public void setInputState(Integer templateId, String state) {
+        checksums.put(templateId + INPUT_SUFFIX, state);
+    }
+
+    /**
+     * Write the manifest
+     */
+    public void save() throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(checksums);
+        StateFiles.write(file, out -> properties.store(out, "checksums of the generated template export files"));
+    }
+
+    public static String createChecksum(byte[] content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return String.format("%064x", new BigInteger(1, digest.digest(content)));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is available in every java runtime
+            throw new IllegalStateException(e);
+        }
+    }
+}
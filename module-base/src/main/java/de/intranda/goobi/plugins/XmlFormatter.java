@@ -0,0 +1,133 @@
+package de.intranda.goobi.plugins;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+
+import org.apache.commons.lang.StringUtils;
+import org.jdom2.Element;
+import org.jdom2.IllegalDataException;
+import org.jdom2.JDOMFactory;
+import org.jdom2.UncheckedJDOMFactory;
+import org.jdom2.Verifier;
+
+/**
+ * Creates the attributes and simple elements of the export files. All methods are thread-safe, so the elements can be created by several threads.
+ *
+ * Missing values are written as empty strings. The names are constants of the export format, so they are not verified again for each entity. The
+ * values come from the database and are checked like in {@link Element#setAttribute(String, String)}, characters that are not allowed in xml
+ * cause an {@link IllegalDataException}.
+ */
+final class XmlFormatter {
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSZ").withZone(ZoneId.systemDefault());
+
+    private static final JDOMFactory FACTORY = new UncheckedJDOMFactory();
+
+    // ids, page counts and other small numbers are used very often
+    private static final String[] NUMBERS = new String[1024];
+
+    static {
+        for (int i = 0; i < NUMBERS.length; i++) {
+            NUMBERS[i] = Integer.toString(i);
+        }
+    }
+
+    private XmlFormatter() {
+    }
+
+    /**
+     * Format a date like 2020-01-31T12:00:00.000+0100
+     */
+    static String formatDate(Date date) {
+        if (date == null) {
+            return "";
+        }
+        // java.sql.Date does not support toInstant()
+        return DATE_FORMAT.format(Instant.ofEpochMilli(date.getTime()));
+    }
+
+    static String toString(int value) {
+        if (value >= 0 && value < NUMBERS.length) {
+            return NUMBERS[value];
+        }
+        return Integer.toString(value);
+    }
+
+    static String toString(Integer value) {
+        return value == null ? "" : toString(value.intValue());
+    }
+
+    static void setAttribute(Element element, String name, String value) {
+        FACTORY.setAttribute(element, FACTORY.attribute(name, checkValue(value, "attribute", name)));
+    }
+
+    static void setAttribute(Element element, String name, int value) {
+        setAttribute(element, name, toString(value));
+    }
+
+    static void setAttribute(Element element, String name, Integer value) {
+        setAttribute(element, name, toString(value));
+    }
+
+    static void setAttribute(Element element, String name, long value) {
+        setAttribute(element, name, Long.toString(value));
+    }
+
+    static void setAttribute(Element element, String name, boolean value) {
+        setAttribute(element, name, value ? "true" : "false");
+    }
+
+    static void setAttribute(Element element, String name, Boolean value) {
+        setAttribute(element, name, value == null ? "" : (value ? "true" : "false"));
+    }
+
+    /**
+     * Set an attribute, blank values are written as empty string
+     */
+    static void setAttributeOrEmpty(Element element, String name, String value) {
+        setAttribute(element, name, StringUtils.isBlank(value) ? "" : value);
+    }
+
+    /**
+     * Add a child element with the given text in the namespace of the parent
+     */
+    static Element addElement(Element parent, String name, String text) {
+        Element element = FACTORY.element(name, parent.getNamespace());
+        FACTORY.addContent(element, FACTORY.text(checkValue(text, "element", name)));
+        FACTORY.addContent(parent, element);
+        return element;
+    }
+
+    /**
+     * Return the value or an empty string, if it is null
+     *
+     * @throws IllegalDataException if the value contains characters that are not allowed in xml
+     */
+    private static String checkValue(String value, String construct, String name) {
+        if (value == null) {
+            return "";
+        }
+        String reason = Verifier.checkCharacterData(value);
+        if (reason != null) {
+            throw new IllegalDataException("The value of " + construct + " " + name + " is not legal: " + reason);
+        }
+        return value;
+    }
+
+    static Element addElement(Element parent, String name, int value) {
+        return addElement(parent, name, toString(value));
+    }
+
+    static Element addElement(Element parent, String name, Integer value) {
+        return addElement(parent, name, toString(value));
+    }
+
+    /**
+     * Add a child element, blank values are written as empty element
+     */
+    static Element addElementOrEmpty(Element parent, String name, String text) {
+        return addElement(parent, name, StringUtils.isBlank(text) ? "" : text);
+    }
+}
@@ -4,8 +4,17 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 import org.junit.runners.Suite.SuiteClasses;
 
+import de.intranda.goobi.plugins.ExportArchiveWriterTest;
+import de.intranda.goobi.plugins.InfrastructureRoundTripTest;
+import de.intranda.goobi.plugins.SpillBufferTest;
+import de.intranda.goobi.plugins.StateFilesTest;
+import de.intranda.goobi.plugins.StreamingXmlWriterTest;
+import de.intranda.goobi.plugins.TemplateCheckpointTest;
+import de.intranda.goobi.plugins.XmlFormatterTest;
+
 @RunWith(Suite.class)
-@SuiteClasses({ })
+@SuiteClasses({ ExportArchiveWriterTest.class, InfrastructureRoundTripTest.class, SpillBufferTest.class,
+        StateFilesTest.class, StreamingXmlWriterTest.class, TemplateCheckpointTest.class, XmlFormatterTest.class })
 public class AllTests {
 
 }
@@ -0,0 +1,158 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExportArchiveWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStoredFiles() throws Exception {
+        assertFilesAreReadable(Deflater.NO_COMPRESSION, 1);
+        assertFilesAreReadable(Deflater.NO_COMPRESSION, 3);
+    }
+
+    @Test
+    public void testCompressedFiles() throws Exception {
+        assertFilesAreReadable(Deflater.DEFAULT_COMPRESSION, 1);
+        assertFilesAreReadable(Deflater.BEST_COMPRESSION, 3);
+    }
+
+    @Test
+    public void testIndexContainsChecksums() throws Exception {
+        Map<String, byte[]> files = createFiles();
+        ArchiveIndex index = new ArchiveIndex();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ExportArchiveWriter archive = new ExportArchiveWriter(out, new ExportProgress(), Deflater.DEFAULT_COMPRESSION, 3)) {
+            archive.setIndex(index);
+            addFiles(archive, files);
+        }
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            ArchiveIndex.Entry entry = index.getEntries().get(file.getKey());
+            assertNotNull(file.getKey(), entry);
+            assertEquals(file.getKey(), file.getValue().length, entry.getSize());
+            assertEquals(file.getKey(), ArchiveIndex.toHex(ArchiveIndex.createDigest().digest(file.getValue())), entry.getChecksum());
+        }
+    }
+
+    @Test
+    public void testDuplicateFileIsSkipped() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ExportArchiveWriter archive = new ExportArchiveWriter(out, new ExportProgress(), Deflater.DEFAULT_COMPRESSION, 3)) {
+            assertTrue(archive.addFile("a/file.txt", 3, () -> new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8))));
+            assertFalse(archive.addFile("a/file.txt", 3, () -> new ByteArrayInputStream("xyz".getBytes(StandardCharsets.UTF_8))));
+        }
+        Map<String, byte[]> entries = readEntries(out.toByteArray());
+        assertEquals(2, entries.size());
+        assertArrayEquals("abc".getBytes(StandardCharsets.UTF_8), entries.get("a/file.txt"));
+    }
+
+    @Test
+    public void testLargeFileIsStreamed() throws Exception {
+        byte[] data = new byte[17 * 1024 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31 + i / 251);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ExportArchiveWriter archive = new ExportArchiveWriter(out, new ExportProgress(), Deflater.BEST_SPEED, 3)) {
+            archive.addFile("images/large.bin", data.length, () -> new ByteArrayInputStream(data));
+        }
+        assertArrayEquals(data, readEntries(out.toByteArray()).get("images/large.bin"));
+    }
+
+    /**
+     * Write the files and read them again with the local headers and with the central directory. The stream reader fails if the crc or the size
+     * of an entry does not match its content.
+     */
+    private void assertFilesAreReadable(int compressionLevel, int threads) throws IOException {
+        Map<String, byte[]> files = createFiles();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ExportArchiveWriter archive = new ExportArchiveWriter(out, new ExportProgress(), compressionLevel, threads)) {
+            addFiles(archive, files);
+        }
+
+        Map<String, byte[]> entries = readEntries(out.toByteArray());
+        assertTrue(entries.containsKey("images/"));
+        assertTrue(entries.containsKey("images/master/"));
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            assertArrayEquals(file.getKey(), file.getValue(), entries.get(file.getKey()));
+        }
+
+        Path zipFile = folder.newFile().toPath();
+        Files.write(zipFile, out.toByteArray());
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                ZipEntry entry = zip.getEntry(file.getKey());
+                assertNotNull(file.getKey(), entry);
+                CRC32 crc = new CRC32();
+                crc.update(file.getValue());
+                assertEquals(file.getKey(), crc.getValue(), entry.getCrc());
+                assertEquals(file.getKey(), file.getValue().length, entry.getSize());
+                assertEquals(file.getKey(), compressionLevel == Deflater.NO_COMPRESSION ? ZipEntry.STORED : ZipEntry.DEFLATED, entry.getMethod());
+                try (InputStream in = zip.getInputStream(entry)) {
+                    assertArrayEquals(file.getKey(), file.getValue(), in.readAllBytes());
+                }
+            }
+        }
+    }
+
+    private static void addFiles(ExportArchiveWriter archive, Map<String, byte[]> files) throws IOException {
+        archive.addEntry("export.xml", out -> out.write("<export/>".getBytes(StandardCharsets.UTF_8)));
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            byte[] content = file.getValue();
+            archive.addFile(file.getKey(), content.length, () -> new ByteArrayInputStream(content));
+        }
+    }
+
+    /**
+     * Files of different sizes in nested folders and an empty file
+     */
+    private static Map<String, byte[]> createFiles() {
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        files.put("images/empty.txt", new byte[0]);
+        files.put("images/master/text.txt", "Goobi to Goobi\n".repeat(5000).getBytes(StandardCharsets.UTF_8));
+        for (int i = 1; i <= 10; i++) {
+            byte[] data = new byte[i * 7919];
+            for (int j = 0; j < data.length; j++) {
+                data[j] = (byte) (j * 31 + j / 251 + i);
+            }
+            files.put("images/master/" + i + ".bin", data);
+        }
+        return files;
+    }
+
+    private static Map<String, byte[]> readEntries(byte[] archive) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                entries.put(entry.getName(), in.readAllBytes());
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,154 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+import org.goobi.beans.Docket;
+import org.goobi.beans.Ldap;
+import org.goobi.beans.Ruleset;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InfrastructureRoundTripTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private int exportCount;
+
+    @Test
+    public void testExportedArchiveIsValid() throws Exception {
+        Path archive = export(2);
+        ImportReport report = new ArchiveVerifier(2).verify(archive);
+        assertTrue(report.getSummary(), report.isValid());
+        assertEquals(Long.valueOf(2), report.getEntities().get("ldaps"));
+        assertEquals(Long.valueOf(1), report.getEntities().get("rulesets"));
+        assertEquals(Long.valueOf(1), report.getEntities().get("dockets"));
+    }
+
+    @Test
+    public void testDamagedArchiveIsInvalid() throws Exception {
+        Path archive = export(1);
+        // cut off the central directory
+        byte[] content = Files.readAllBytes(archive);
+        Files.write(archive, Arrays.copyOf(content, content.length / 2));
+
+        assertFalse(new ArchiveVerifier(2).verify(archive).isValid());
+    }
+
+    @Test
+    public void testConvertedArchiveIsValid() throws Exception {
+        Path archive = export(1);
+        Path converted = folder.getRoot().toPath().resolve("converted.zip");
+        ExportFormatConverter.convert(archive, converted, ExportFormat.COMPACT_GZIP);
+
+        ImportReport report = new ArchiveVerifier(2).verify(converted);
+        assertTrue(report.getSummary(), report.isValid());
+        assertEquals(Long.valueOf(2), report.getEntities().get("ldaps"));
+    }
+
+    @Test
+    public void testParallelSectionsAreIdentical() throws Exception {
+        for (ExportFormat format : ExportFormat.values()) {
+            byte[] sequential = readExportFile(export(1, format), format);
+            byte[] parallel = readExportFile(export(3, format), format);
+            assertArrayEquals(format.name(), sequential, parallel);
+        }
+    }
+
+    private byte[] readExportFile(Path archive, ExportFormat format) throws IOException {
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            ZipEntry entry = zip.getEntry(format.getFileName("goobi-to-goobi-export"));
+            try (InputStream in = zip.getInputStream(entry)) {
+                return in.readAllBytes();
+            }
+        }
+    }
+
+    private Path export(int sectionThreads) throws IOException {
+        return export(sectionThreads, ExportFormat.PRETTY);
+    }
+
+    private Path export(int sectionThreads, ExportFormat format) throws IOException {
+        Path archive = folder.getRoot().toPath().resolve("export-" + exportCount++ + ".zip");
+        XMLConfiguration config = new XMLConfiguration();
+        config.setProperty("archiveIndex", true);
+        config.setProperty("sectionThreads", sectionThreads);
+        config.setProperty("exportBuffer.folder", folder.getRoot().toString());
+        config.setProperty("infrastructureManifest", folder.getRoot().toPath().resolve("manifest.properties").toString());
+        config.setProperty("fileChecksumCache", folder.getRoot().toPath().resolve("checksums.properties").toString());
+        try (OutputStream out = Files.newOutputStream(archive)) {
+            TestPlugin plugin = new TestPlugin(config);
+            plugin.setExportFormat(format);
+            new InfrastructureExporter(plugin, new ExportProgress(), new TestDataLoader()).writeArchive(out);
+        }
+        return archive;
+    }
+
+    /**
+     * Exports ldap groups, rulesets and dockets only, so no database is needed
+     */
+    static class TestPlugin extends GoobiToGoobiExportPlugin {
+
+        private final XMLConfiguration config;
+
+        TestPlugin(XMLConfiguration config) {
+            this.config = config;
+            setUserGroups(false);
+            setUser(false);
+            setProjects(false);
+            setIncludeFiles(false);
+        }
+
+        @Override
+        XMLConfiguration getConfiguration() {
+            return config;
+        }
+    }
+
+    static class TestDataLoader extends ExportDataLoader {
+
+        @Override
+        public List<Ldap> getLdaps() {
+            Ldap first = new Ldap();
+            first.setId(1);
+            first.setTitel("staff");
+            Ldap second = new Ldap();
+            second.setId(2);
+            second.setTitel("guests");
+            return Arrays.asList(first, second);
+        }
+
+        @Override
+        public List<Ruleset> getRulesets() {
+            Ruleset ruleset = new Ruleset();
+            ruleset.setId(1);
+            ruleset.setTitel("default");
+            ruleset.setDatei("ruleset.xml");
+            return Arrays.asList(ruleset);
+        }
+
+        @Override
+        public synchronized List<Docket> getDockets() {
+            Docket docket = new Docket();
+            docket.setId(1);
+            docket.setName("default");
+            docket.setFile("docket.xsl");
+            return Arrays.asList(docket);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SpillBufferTest {
+
+    private static final int MEMORY_LIMIT = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void stopProducer() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testDataIsSpilledInOrder() throws Exception {
+        ExportMetrics metrics = new ExportMetrics();
+        Path tempFolder = folder.getRoot().toPath();
+        SpillBuffer buffer = new SpillBuffer(MEMORY_LIMIT, Long.MAX_VALUE, tempFolder, metrics);
+        byte[] data = createData(2 * 1024 * 1024);
+
+        // nothing is read yet, so all data after the first chunk goes into the temporary file
+        try (OutputStream out = buffer.getOutputStream()) {
+            writeInPieces(out, data);
+        }
+        assertEquals(data.length - MEMORY_LIMIT, metrics.getPhase("buffer: spill to disk").getBytes());
+
+        try (InputStream in = buffer.getInputStream()) {
+            assertArrayEquals(data, readAll(in));
+        }
+        assertEquals(0, tempFolder.toFile().list().length);
+    }
+
+    @Test
+    public void testProducerWaitsForConsumer() throws Exception {
+        SpillBuffer buffer = new SpillBuffer(MEMORY_LIMIT, 0, folder.getRoot().toPath(), new ExportMetrics());
+        byte[] data = createData(1024 * 1024);
+        Future<?> producer = executor.submit(() -> {
+            try (OutputStream out = buffer.getOutputStream()) {
+                writeInPieces(out, data);
+            }
+            return null;
+        });
+
+        // memory is full and no temporary file is allowed
+        try {
+            producer.get(500, TimeUnit.MILLISECONDS);
+            fail("The producer did not wait for the consumer");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        try (InputStream in = buffer.getInputStream()) {
+            assertArrayEquals(data, readAll(in));
+        }
+        producer.get(5, TimeUnit.SECONDS);
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testClosedConsumerStopsProducer() throws Exception {
+        SpillBuffer buffer = new SpillBuffer(MEMORY_LIMIT, 0, folder.getRoot().toPath(), new ExportMetrics());
+        Future<?> producer = executor.submit(() -> {
+            try (OutputStream out = buffer.getOutputStream()) {
+                writeInPieces(out, createData(1024 * 1024));
+            }
+            return null;
+        });
+        InputStream in = buffer.getInputStream();
+        assertTrue(in.read() >= 0);
+        in.close();
+
+        try {
+            producer.get(5, TimeUnit.SECONDS);
+            fail("The producer was not stopped");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testProducerFailureIsReported() throws Exception {
+        SpillBuffer buffer = new SpillBuffer(MEMORY_LIMIT, 0, folder.getRoot().toPath(), new ExportMetrics());
+        IllegalStateException failure = new IllegalStateException("database is gone");
+        buffer.fail(failure);
+        try (InputStream in = buffer.getInputStream()) {
+            in.read();
+            fail("The failure of the producer was not reported");
+        } catch (IOException e) {
+            assertEquals(failure, e.getCause());
+        }
+    }
+
+    private static byte[] createData(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + i / 251);
+        }
+        return data;
+    }
+
+    /**
+     * Write single bytes and blocks of different sizes, so the chunks are filled in different ways
+     */
+    private static void writeInPieces(OutputStream out, byte[] data) throws IOException {
+        int position = 0;
+        int length = 1;
+        while (position < data.length) {
+            if (length == 1) {
+                out.write(data[position]);
+            } else {
+                out.write(data, position, Math.min(length, data.length - position));
+            }
+            position += length;
+            length = length * 7 % 100_003;
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[10_000];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+}
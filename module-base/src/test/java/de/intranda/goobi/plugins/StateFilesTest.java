@@ -0,0 +1,87 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StateFilesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testConcurrentWritesKeepOneCompleteFile() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("manifest.properties");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> writes = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                byte[] content = createContent(i);
+                writes.add(executor.submit(() -> {
+                    StateFiles.write(file, out -> {
+                        // write in pieces, so parallel writes into the same file would be mixed
+                        for (byte b : content) {
+                            out.write(b);
+                        }
+                    });
+                    return null;
+                }));
+            }
+            for (Future<?> write : writes) {
+                write.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        String first = content.substring(0, content.indexOf('\n'));
+        assertEquals(new String(createContent(Integer.parseInt(first)), StandardCharsets.UTF_8), content);
+        // only the file and its lock file are left
+        assertEquals(Arrays.asList("manifest.properties", "manifest.properties.lock"), listFolder());
+    }
+
+    @Test
+    public void testFailedWriteKeepsOldFile() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("manifest.properties");
+        StateFiles.write(file, out -> out.write(createContent(1)));
+        try {
+            StateFiles.write(file, out -> {
+                out.write(createContent(2), 0, 10);
+                throw new IOException("interrupted");
+            });
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(Arrays.equals(createContent(1), Files.readAllBytes(file)));
+        assertEquals(Arrays.asList("manifest.properties", "manifest.properties.lock"), listFolder());
+    }
+
+    private List<String> listFolder() {
+        List<String> names = new ArrayList<>(Arrays.asList(folder.getRoot().list()));
+        names.sort(null);
+        return names;
+    }
+
+    private static byte[] createContent(int run) {
+        StringBuilder sb = new StringBuilder().append(run).append('\n');
+        for (int i = 0; i < 1000; i++) {
+            sb.append("entry").append(i).append('=').append(run).append('\n');
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
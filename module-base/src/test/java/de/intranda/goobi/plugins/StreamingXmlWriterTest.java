@@ -0,0 +1,142 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.Namespace;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.junit.Test;
+
+public class StreamingXmlWriterTest {
+
+    private static final Namespace NAMESPACE = Namespace.getNamespace("http://www.goobi.io/infrastructure");
+    private static final Namespace OTHER_NAMESPACE = Namespace.getNamespace("other", "http://www.goobi.io/other");
+
+    @Test
+    public void testPrettyFormat() throws Exception {
+        assertSameOutput(ExportFormat.PRETTY.getXmlFormat());
+    }
+
+    @Test
+    public void testCompactFormat() throws Exception {
+        assertSameOutput(ExportFormat.COMPACT.getXmlFormat());
+    }
+
+    @Test
+    public void testExpandedEmptyElements() throws Exception {
+        Format format = ExportFormat.PRETTY.getXmlFormat();
+        format.setExpandEmptyElements(true);
+        assertSameOutput(format);
+    }
+
+    @Test
+    public void testFragmentsInPrettyFormat() throws Exception {
+        assertSameFragmentOutput(ExportFormat.PRETTY.getXmlFormat());
+    }
+
+    @Test
+    public void testFragmentsInCompactFormat() throws Exception {
+        assertSameFragmentOutput(ExportFormat.COMPACT.getXmlFormat());
+    }
+
+    /**
+     * Each section is written by its own writer and copied into the document afterwards, like the sections written in parallel
+     */
+    private void assertSameFragmentOutput(Format format) throws IOException {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        Element expectedRoot = createRoot();
+        for (Element section : createSections()) {
+            expectedRoot.addContent(section);
+        }
+        new XMLOutputter(format).output(new Document(expectedRoot), expected);
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        StreamingXmlWriter writer = new StreamingXmlWriter(actual, format);
+        writer.startDocument();
+        Element root = createRoot();
+        writer.startElement(root);
+        for (Element section : createSections()) {
+            ByteArrayOutputStream fragment = new ByteArrayOutputStream();
+            StreamingXmlWriter fragmentWriter = new StreamingXmlWriter(fragment, format);
+            fragmentWriter.startFragment(root);
+            fragmentWriter.startElement(new Element(section.getName(), section.getNamespace()));
+            for (Element child : new ArrayList<>(section.getChildren())) {
+                fragmentWriter.writeElement(child.detach());
+            }
+            fragmentWriter.endElement();
+            fragmentWriter.endFragment();
+            writer.writeFragment(new ByteArrayInputStream(fragment.toByteArray()));
+        }
+        writer.endDocument();
+
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    private void assertSameOutput(Format format) throws IOException {
+        Element root = createRoot();
+        List<Element> sections = createSections();
+        for (Element section : sections) {
+            root.addContent(section);
+        }
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        new XMLOutputter(format).output(new Document(root), expected);
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        StreamingXmlWriter writer = new StreamingXmlWriter(actual, format);
+        writer.startDocument();
+        writer.startElement(createRoot());
+        for (Element section : createSections()) {
+            writer.startElement(new Element(section.getName(), section.getNamespace()));
+            for (Element child : new ArrayList<>(section.getChildren())) {
+                writer.writeElement(child.detach());
+            }
+            writer.endElement();
+        }
+        writer.endDocument();
+
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    private static Element createRoot() {
+        Element root = new Element("infrastructure", NAMESPACE);
+        root.setAttribute("delta", "true");
+        return root;
+    }
+
+    /**
+     * Sections with attributes and texts that must be escaped, nested elements, another namespace and an empty section
+     */
+    private static List<Element> createSections() {
+        List<Element> sections = new ArrayList<>();
+        Element users = new Element("users", NAMESPACE);
+        for (int i = 1; i <= 3; i++) {
+            Element user = new Element("user", NAMESPACE);
+            user.setAttribute("id", String.valueOf(i));
+            user.setAttribute("name", "M\u00fcller & <S\u00f6hne> \"" + i + "\"");
+            Element comment = new Element("comment", NAMESPACE);
+            comment.setText("  first line\nsecond line & more  ");
+            user.addContent(comment);
+            user.addContent(new Element("empty", NAMESPACE));
+            Element external = new Element("reference", OTHER_NAMESPACE);
+            external.setAttribute("target", "project " + i);
+            user.addContent(external);
+            users.addContent(user);
+        }
+        sections.add(users);
+        sections.add(new Element("userGroups", NAMESPACE));
+        Element projects = new Element("projects", NAMESPACE);
+        Element project = new Element("project", NAMESPACE);
+        project.addContent(new Element("title", NAMESPACE).setText("Project\tA"));
+        projects.addContent(project);
+        sections.add(projects);
+        return sections;
+    }
+}
@@ -0,0 +1,52 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TemplateCheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSecondRunIsRefused() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("checkpoint.txt");
+        TemplateCheckpoint first = new TemplateCheckpoint(file, "PRETTY");
+        TemplateCheckpoint second = new TemplateCheckpoint(file, "PRETTY");
+        assertTrue(first.open());
+        assertFalse(second.open());
+
+        first.markCompleted(1);
+        first.markCompleted(2);
+        first.close();
+
+        // the interrupted run is continued by the next one
+        assertTrue(second.open());
+        assertEquals(2, second.getCompletedCount());
+        assertTrue(second.isCompleted(2));
+        second.finish();
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    public void testOtherSettingsAreIgnored() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("checkpoint.txt");
+        TemplateCheckpoint first = new TemplateCheckpoint(file, "PRETTY");
+        assertTrue(first.open());
+        first.markCompleted(1);
+        first.close();
+
+        TemplateCheckpoint second = new TemplateCheckpoint(file, "COMPACT");
+        assertTrue(second.open());
+        assertEquals(0, second.getCompletedCount());
+        second.close();
+    }
+}
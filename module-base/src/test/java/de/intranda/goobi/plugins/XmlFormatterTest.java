@@ -0,0 +1,81 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jdom2.Element;
+import org.jdom2.IllegalDataException;
+import org.jdom2.output.XMLOutputter;
+import org.junit.Test;
+
+public class XmlFormatterTest {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 2000;
+
+    @Test
+    public void testConcurrentFormatting() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                int offset = thread * ITERATIONS;
+                results.add(executor.submit((Callable<Integer>) () -> {
+                    XMLOutputter outputter = new XMLOutputter();
+                    for (int i = offset; i < offset + ITERATIONS; i++) {
+                        assertEquals(expected(i), outputter.outputString(create(i)));
+                    }
+                    return ITERATIONS;
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(Integer.valueOf(ITERATIONS), result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMissingValuesAreEmpty() {
+        Element element = new Element("project");
+        XmlFormatter.setAttribute(element, "title", (String) null);
+        XmlFormatter.setAttribute(element, "archived", (Boolean) null);
+        XmlFormatter.addElement(element, "startDate", XmlFormatter.formatDate(null));
+        assertEquals("<project title=\"\" archived=\"\"><startDate /></project>", new XMLOutputter().outputString(element));
+    }
+
+    @Test(expected = IllegalDataException.class)
+    public void testIllegalAttributeValue() {
+        XmlFormatter.setAttribute(new Element("user"), "login", "admin\u0001");
+    }
+
+    @Test(expected = IllegalDataException.class)
+    public void testIllegalElementText() {
+        XmlFormatter.addElement(new Element("project"), "title", "title\uFFFF");
+    }
+
+    private static Element create(int i) {
+        Element element = new Element("project");
+        XmlFormatter.setAttribute(element, "id", i);
+        XmlFormatter.setAttribute(element, "archived", i % 2 == 0);
+        XmlFormatter.addElement(element, "title", "project " + i);
+        XmlFormatter.addElement(element, "startDate", XmlFormatter.formatDate(new Date(i * 86_400_123L)));
+        return element;
+    }
+
+    private static String expected(int i) {
+        // a new instance for each call, SimpleDateFormat cannot be shared
+        String date = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(i * 86_400_123L));
+        return "<project id=\"" + i + "\" archived=\"" + (i % 2 == 0) + "\"><title>project " + i + "</title><startDate>" + date
+                + "</startDate></project>";
+    }
+}
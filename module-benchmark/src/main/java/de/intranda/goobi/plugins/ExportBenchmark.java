@@ -0,0 +1,146 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+import org.apache.commons.configuration2.XMLConfiguration;
+import org.goobi.beans.Ldap;
+import org.goobi.beans.Project;
+import org.goobi.beans.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the serialization of the infrastructure export with synthetic data. No database or Goobi configuration is needed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportBenchmark {
+
+    private static final int RULESET_FILES = 20;
+    // about 250 kb per file
+    private static final int RULESET_LINES = 2500;
+
+    // number of users, the other entities are scaled accordingly
+    @Param({ "100", "1000", "10000", "100000" })
+    int entities;
+
+    private FixtureDataLoader loader;
+    private InfrastructureExporter exporter;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        loader = new FixtureDataLoader(entities);
+        exporter = new InfrastructureExporter(new BenchmarkPlugin(), new ExportProgress(), loader);
+    }
+
+    @Benchmark
+    public void createUserElements(Blackhole blackhole) throws IOException {
+        for (User user : loader.getAllUsers()) {
+            blackhole.consume(exporter.createUserElement(user));
+        }
+    }
+
+    @Benchmark
+    public void createProjectElements(Blackhole blackhole) throws IOException {
+        for (Project project : loader.getProjects()) {
+            blackhole.consume(exporter.createProjectElement(project));
+        }
+    }
+
+    @Benchmark
+    public void createLdapGroupElements(Blackhole blackhole) {
+        for (Ldap ldap : loader.getLdaps()) {
+            blackhole.consume(exporter.createLdapGroupElement(ldap));
+        }
+    }
+
+    @Benchmark
+    public void writeInfrastructure() throws IOException {
+        exporter.writeInfrastructure(OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void writeArchive(RulesetFiles files) throws IOException {
+        try (ExportArchiveWriter archive = new ExportArchiveWriter(OutputStream.nullOutputStream(), new ExportProgress(),
+                Deflater.DEFAULT_COMPRESSION, files.compressionThreads)) {
+            archive.addEntry("goobi-to-goobi-export.xml", exporter::writeInfrastructure);
+            for (Path file : files.files) {
+                archive.addFile("rulesets/" + file.getFileName().toString(), file);
+            }
+        }
+    }
+
+    /**
+     * Ruleset files with synthetic content for the archive benchmark
+     */
+    @State(Scope.Benchmark)
+    public static class RulesetFiles {
+
+        @Param({ "1", "4" })
+        int compressionThreads;
+
+        private Path folder;
+        private List<Path> files;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            folder = Files.createTempDirectory("goobi2goobi-benchmark");
+            files = new ArrayList<>();
+            for (int i = 0; i < RULESET_FILES; i++) {
+                Path file = folder.resolve("ruleset" + i + ".xml");
+                try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                    writer.write("<Preferences>\n");
+                    for (int line = 0; line < RULESET_LINES; line++) {
+                        writer.write("  <MetadataType><Name>metadata" + line + "</Name><language name=\"de\">Metadatum " + line
+                                + "</language></MetadataType>\n");
+                    }
+                    writer.write("</Preferences>\n");
+                }
+                files.add(file);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(folder);
+        }
+    }
+
+    /**
+     * Uses the default settings without reading the plugin configuration file
+     */
+    private static class BenchmarkPlugin extends GoobiToGoobiExportPlugin {
+        @Override
+        XMLConfiguration getConfiguration() {
+            return new XMLConfiguration();
+        }
+    }
+}
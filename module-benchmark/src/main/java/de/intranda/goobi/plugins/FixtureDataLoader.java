@@ -0,0 +1,202 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.goobi.beans.Docket;
+import org.goobi.beans.Institution;
+import org.goobi.beans.Ldap;
+import org.goobi.beans.Project;
+import org.goobi.beans.ProjectFileGroup;
+import org.goobi.beans.Ruleset;
+import org.goobi.beans.User;
+import org.goobi.beans.Usergroup;
+
+/**
+ * Provides synthetic export data from memory instead of the database.
+ *
+ * The number of users is given, the other entities are scaled accordingly: one project per 10 users, one user group per 100 users and one ldap
+ * group per 1000 users.
+ */
+public class FixtureDataLoader extends ExportDataLoader {
+
+    private static final int INSTITUTIONS = 5;
+    private static final int PROJECTS_PER_USER = 3;
+
+    private final List<Institution> institutions = new ArrayList<>();
+    private final List<Ldap> ldaps = new ArrayList<>();
+    private final List<Ruleset> rulesets = new ArrayList<>();
+    private final List<Docket> dockets = new ArrayList<>();
+    private final List<Project> projects = new ArrayList<>();
+    private final List<Usergroup> usergroups = new ArrayList<>();
+    private final List<User> users = new ArrayList<>();
+    private final List<ProjectFileGroup> filegroups = new ArrayList<>();
+
+    private final Map<Integer, List<Project>> projectsByUser = new HashMap<>();
+    private final Map<Integer, List<User>> usersByUsergroup = new HashMap<>();
+
+    public FixtureDataLoader(int userCount) {
+        for (int i = 1; i <= INSTITUTIONS; i++) {
+            Institution institution = new Institution();
+            institution.setId(i);
+            institution.setShortName("institution" + i);
+            institution.setLongName("Institution number " + i);
+            institution.setAllowAllAuthentications(true);
+            institution.setAllowAllDockets(true);
+            institution.setAllowAllPlugins(true);
+            institution.setAllowAllRulesets(true);
+            institutions.add(institution);
+        }
+
+        for (int i = 1; i <= Math.max(1, userCount / 1000); i++) {
+            Ldap ldap = new Ldap();
+            ldap.setId(i);
+            ldap.setTitel("ldap" + i);
+            ldap.setHomeDirectory("/home/{login}");
+            ldap.setGidNumber("100");
+            ldap.setUserDN("cn={login},ou=users,dc=example,dc=org");
+            ldap.setLoginShell("/bin/bash");
+            ldaps.add(ldap);
+        }
+
+        for (int i = 1; i <= 10; i++) {
+            Ruleset ruleset = new Ruleset();
+            ruleset.setId(i);
+            ruleset.setTitel("Ruleset " + i);
+            ruleset.setDatei("ruleset" + i + ".xml");
+            rulesets.add(ruleset);
+
+            Docket docket = new Docket();
+            docket.setId(i);
+            docket.setName("Docket " + i);
+            docket.setFile("docket" + i + ".xsl");
+            dockets.add(docket);
+        }
+
+        for (int i = 1; i <= 3; i++) {
+            ProjectFileGroup filegroup = new ProjectFileGroup();
+            filegroup.setId(i);
+            filegroup.setName("filegroup" + i);
+            filegroup.setPath("https://example.org/viewer/content/$(meta.CatalogIDDigital)/" + i + "/");
+            filegroup.setMimetype("image/jpeg");
+            filegroup.setSuffix("jpg");
+            filegroups.add(filegroup);
+        }
+
+        for (int i = 1; i <= Math.max(1, userCount / 10); i++) {
+            Project project = new Project();
+            project.setId(i);
+            project.setTitel("Project " + i);
+            project.setFileFormatInternal("Mets");
+            project.setFileFormatDmsExport("Mets");
+            project.setStartDate(new Date());
+            project.setEndDate(new Date());
+            project.setNumberOfPages(1000);
+            project.setNumberOfVolumes(10);
+            project.setMetsRightsOwner("Example library");
+            project.setMetsPurl("https://example.org/purl/$(meta.CatalogIDDigital)");
+            project.setInstitutionId(getInstitutionId(i));
+            projects.add(project);
+        }
+
+        for (int i = 1; i <= Math.max(1, userCount / 100); i++) {
+            Usergroup usergroup = new Usergroup();
+            usergroup.setId(i);
+            usergroup.setTitel("Usergroup " + i);
+            usergroup.setBerechtigung(1);
+            usergroup.setUserRoles(new ArrayList<>(List.of("Workflow_General", "Task_List", "Workflow_Processes")));
+            usergroup.setInstitutionId(getInstitutionId(i));
+            usergroups.add(usergroup);
+        }
+
+        for (int i = 1; i <= userCount; i++) {
+            User user = new User();
+            user.setId(i);
+            user.setVorname("Firstname" + i);
+            user.setNachname("Lastname" + i);
+            user.setLogin("user" + i);
+            user.setEmail("user" + i + "@example.org");
+            user.setStandort("Goettingen");
+            user.setMetadatenSprache("de");
+            user.setInstitutionId(getInstitutionId(i));
+            users.add(user);
+
+            List<Project> assignedProjects = new ArrayList<>(PROJECTS_PER_USER);
+            for (int p = 0; p < PROJECTS_PER_USER; p++) {
+                assignedProjects.add(projects.get((i + p) % projects.size()));
+            }
+            projectsByUser.put(i, assignedProjects);
+            usersByUsergroup.computeIfAbsent(usergroups.get(i % usergroups.size()).getId(), k -> new ArrayList<>()).add(user);
+        }
+    }
+
+    private static int getInstitutionId(int index) {
+        return index % INSTITUTIONS + 1;
+    }
+
+    public List<User> getAllUsers() {
+        return users;
+    }
+
+    @Override
+    public List<Ldap> getLdaps() {
+        return ldaps;
+    }
+
+    @Override
+    public List<Ruleset> getRulesets() {
+        return rulesets;
+    }
+
+    @Override
+    public synchronized List<Docket> getDockets() {
+        return dockets;
+    }
+
+    @Override
+    public List<Project> getProjects() {
+        return projects;
+    }
+
+    @Override
+    public List<Usergroup> getUsergroups() {
+        return usergroups;
+    }
+
+    @Override
+    public List<User> getUsers(String filter, int start, int count) {
+        if (start >= users.size()) {
+            return Collections.emptyList();
+        }
+        return users.subList(start, Math.min(users.size(), start + count));
+    }
+
+    @Override
+    public synchronized Institution getInstitution(Integer institutionId) {
+        return institutions.get(institutionId - 1);
+    }
+
+    @Override
+    public synchronized List<Institution> getAllInstitutions() {
+        return institutions;
+    }
+
+    @Override
+    public synchronized List<Project> getProjectsForUser(Integer userId) {
+        return projectsByUser.getOrDefault(userId, Collections.emptyList());
+    }
+
+    @Override
+    public synchronized List<User> getUsersForUsergroup(Integer usergroupId) {
+        return usersByUsergroup.getOrDefault(usergroupId, Collections.emptyList());
+    }
+
+    @Override
+    public synchronized List<ProjectFileGroup> getFilegroupsForProject(Integer projectId) {
+        return filegroups;
+    }
+}